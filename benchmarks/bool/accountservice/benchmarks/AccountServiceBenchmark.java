@@ -0,0 +1,67 @@
+package bool.accountservice.benchmarks;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bool.server.AccountService;
+
+/**
+ * Single thread getAmount/addAmount over in-memory database for both stores and write modes.
+ * Accounts are preloaded, so every call is served from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountServiceBenchmark {
+	private static final int ACCOUNTS = 100000;
+
+	@Param({"handlers", "compact"})
+	public String store;
+
+	@Param({"sync", "behind"})
+	public String writeMode;
+
+	private AccountService service;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		service = new AccountService(BenchmarkStorage.withAccounts(ACCOUNTS), ACCOUNTS, "compact".equals(store));
+		if ("behind".equals(writeMode)) {
+			service.enableWriteBehind(ACCOUNTS, 500, 100);
+		}
+		service.warmUp(0, ACCOUNTS - 1, 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public Long getAmount() throws RemoteException {
+		return service.getAmount(ThreadLocalRandom.current().nextInt(ACCOUNTS));
+	}
+
+	@Benchmark
+	public void addAmount() throws RemoteException {
+		service.addAmount(ThreadLocalRandom.current().nextInt(ACCOUNTS), 1L);
+	}
+}
@@ -0,0 +1,25 @@
+package bool.accountservice.benchmarks;
+
+import java.sql.SQLException;
+
+import bool.server.MemoryStorage;
+
+/**
+ * In-memory storage keeps benchmarks free of JDBC and network latency.
+ */
+public final class BenchmarkStorage {
+
+	private BenchmarkStorage() {
+	}
+
+	/**
+	 * Creates storage with accounts [0, count) and zero balance.
+	 */
+	public static MemoryStorage withAccounts(int count) throws SQLException {
+		MemoryStorage storage = new MemoryStorage();
+		for (int id = 0; id < count; ++id) {
+			storage.upsert(id, 0, 1);
+		}
+		return storage;
+	}
+}
@@ -0,0 +1,76 @@
+package bool.accountservice.benchmarks;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bool.server.AccountService;
+
+/**
+ * Increments of a single account from 1 to 64 threads, measures how account handler scales under contention.
+ * Write-behind mode is used so the handler itself rather than database writes is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+	private static final int ACCOUNT = 1;
+
+	@Param({"handlers", "compact"})
+	public String store;
+
+	private AccountService service;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		service = new AccountService(BenchmarkStorage.withAccounts(ACCOUNT + 1), 1000, "compact".equals(store));
+		service.enableWriteBehind(1000, 500, 100);
+		service.getAmount(ACCOUNT);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void add1Thread() throws RemoteException {
+		service.addAmount(ACCOUNT, 1L);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void add4Threads() throws RemoteException {
+		service.addAmount(ACCOUNT, 1L);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void add16Threads() throws RemoteException {
+		service.addAmount(ACCOUNT, 1L);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void add64Threads() throws RemoteException {
+		service.addAmount(ACCOUNT, 1L);
+	}
+}
@@ -0,0 +1,64 @@
+package bool.accountservice.benchmarks;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bool.server.AccountService;
+import bool.server.MemoryStorage;
+
+/**
+ * Account handler lookups through getAmount: hot lookups hit a small cached working set,
+ * cold lookups spread over many more accounts than the cache holds, so most of them load and evict a handler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerLookupBenchmark {
+	private static final int ACCOUNTS = 1000000;
+	private static final int HOT_ACCOUNTS = 1024;
+	private static final int COLD_CACHE_SIZE = 1024;
+
+	private AccountService hotService;
+	private AccountService coldService;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		MemoryStorage storage = BenchmarkStorage.withAccounts(ACCOUNTS);
+		hotService = new AccountService(storage, ACCOUNTS);
+		hotService.warmUp(0, HOT_ACCOUNTS - 1, 1);
+		coldService = new AccountService(storage, COLD_CACHE_SIZE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		hotService.close();
+		coldService.close();
+	}
+
+	@Benchmark
+	public Long hotLookup() throws RemoteException {
+		return hotService.getAmount(ThreadLocalRandom.current().nextInt(HOT_ACCOUNTS));
+	}
+
+	@Benchmark
+	public Long coldLookup() throws RemoteException {
+		return coldService.getAmount(ThreadLocalRandom.current().nextInt(ACCOUNTS));
+	}
+}
@@ -0,0 +1,57 @@
+package bool.accountservice.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bool.server.AccountService;
+
+/**
+ * Cost of statistics collection, which runs every second, and of its text report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatBenchmark {
+	private static final int ACCOUNTS = 10000;
+
+	private AccountService service;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		service = new AccountService(BenchmarkStorage.withAccounts(ACCOUNTS), ACCOUNTS);
+		for (int id = 0; id < ACCOUNTS; ++id) {
+			service.addAmount(id, 1L);
+			service.getAmount(id);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public void collectData() {
+		service.collectData();
+	}
+
+	@Benchmark
+	public String stat() {
+		return service.stat();
+	}
+}
@@ -0,0 +1,198 @@
+package bool.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import bool.server.RemoteAccountService;
+
+/**
+ * Asynchronous facade over RemoteAccountService.
+ * Requests are queued and sent by a fixed number of sender threads, each sender takes all queued requests
+ * up to batch size and sends them with single getAmounts/addAmounts calls, so many in-flight requests share
+ * a few remote calls at a time. Number of in-flight requests is limited, callers are blocked when limit is reached.
+ */
+public class AsyncAccountService {
+	private static final int MAX_BATCH = 1000;
+
+	private final RemoteAccountService service;
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final Thread[] senders;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Request waiting to be sent, value is null for reads.
+	 */
+	private static class Request {
+		final int id;
+		final Long value;
+		final CompletableFuture<Long> amount;
+		final CompletableFuture<Void> done;
+
+		Request(int id) {
+			this.id = id;
+			this.value = null;
+			this.amount = new CompletableFuture<Long>();
+			this.done = null;
+		}
+
+		Request(int id, long value) {
+			this.id = id;
+			this.value = value;
+			this.amount = null;
+			this.done = new CompletableFuture<Void>();
+		}
+	}
+
+	/**
+	 * @param connections number of simultaneous remote calls
+	 * @param maxInFlight maximum number of requests sent or waiting to be sent
+	 */
+	public AsyncAccountService(RemoteAccountService service, int connections, int maxInFlight) {
+		this.service = service;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+
+		senders = new Thread[connections];
+		for (int i = 0; i < connections; ++i) {
+			senders[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runSender();
+				}
+			}, "async-sender-" + i);
+			senders[i].setDaemon(true);
+			senders[i].start();
+		}
+	}
+
+	/**
+	 * Queues balance request, blocks while in-flight limit is reached.
+	 */
+	public CompletableFuture<Long> getAmount(int id) throws InterruptedException {
+		Request request = new Request(id);
+		submit(request);
+		return request.amount;
+	}
+
+	/**
+	 * Queues balance increment, blocks while in-flight limit is reached.
+	 */
+	public CompletableFuture<Void> addAmount(int id, long value) throws InterruptedException {
+		Request request = new Request(id, value);
+		submit(request);
+		return request.done;
+	}
+
+	/**
+	 * Waits until all in-flight requests are completed and stops senders.
+	 */
+	public void close() throws InterruptedException {
+		inFlight.acquire(maxInFlight);
+		inFlight.release(maxInFlight);
+		running = false;
+		for (Thread sender: senders) {
+			sender.interrupt();
+			sender.join();
+		}
+	}
+
+	private void submit(Request request) throws InterruptedException {
+		if (!running) {
+			throw new IllegalStateException("Service is closed");
+		}
+		inFlight.acquire();
+		queue.add(request);
+	}
+
+	private void runSender() {
+		List<Request> batch = new ArrayList<Request>(MAX_BATCH);
+		List<Request> reads = new ArrayList<Request>(MAX_BATCH);
+		List<Request> writes = new ArrayList<Request>(MAX_BATCH);
+
+		while (running) {
+			try {
+				Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, MAX_BATCH - 1);
+
+				for (Request request: batch) {
+					(request.value == null ? reads : writes).add(request);
+				}
+				sendReads(reads);
+				sendWrites(writes);
+			} catch (InterruptedException e) {
+				break;
+			} finally {
+				inFlight.release(batch.size());
+				batch.clear();
+				reads.clear();
+				writes.clear();
+			}
+		}
+	}
+
+	private void sendReads(List<Request> reads) {
+		if (reads.isEmpty()) {
+			return;
+		}
+
+		try {
+			if (reads.size() == 1) {
+				Request request = reads.get(0);
+				request.amount.complete(service.getAmount(request.id));
+				return;
+			}
+
+			int[] ids = new int[reads.size()];
+			for (int i = 0; i < ids.length; ++i) {
+				ids[i] = reads.get(i).id;
+			}
+			long[] amounts = service.getAmounts(ids);
+			for (int i = 0; i < ids.length; ++i) {
+				reads.get(i).amount.complete(amounts[i]);
+			}
+		} catch (Exception e) {
+			for (Request request: reads) {
+				request.amount.completeExceptionally(e);
+			}
+		}
+	}
+
+	private void sendWrites(List<Request> writes) {
+		if (writes.isEmpty()) {
+			return;
+		}
+
+		try {
+			if (writes.size() == 1) {
+				Request request = writes.get(0);
+				service.addAmount(request.id, request.value);
+			} else {
+				int[] ids = new int[writes.size()];
+				long[] values = new long[writes.size()];
+				for (int i = 0; i < ids.length; ++i) {
+					ids[i] = writes.get(i).id;
+					values[i] = writes.get(i).value;
+				}
+				service.addAmounts(ids, values);
+			}
+			for (Request request: writes) {
+				request.done.complete(null);
+			}
+		} catch (Exception e) {
+			for (Request request: writes) {
+				request.done.completeExceptionally(e);
+			}
+		}
+	}
+}
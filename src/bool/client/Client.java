@@ -1,15 +1,26 @@
 package bool.client;
 
+import java.io.File;
 import java.rmi.RMISecurityManager;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import bool.server.HashRing;
+import bool.server.NioProtocol;
 import bool.server.RemoteAccountService;
+import bool.server.VirtualThreads;
 
 public class Client {
 	
@@ -17,8 +28,24 @@ public class Client {
 	 * Id storage access interface.
 	 */
 	public interface IdSource  {
-		Integer get(int index);
+		int getId(int index);
 		int size();
+		
+		/**
+		 * Boxed id, use getId() in load loops.
+		 */
+		default Integer get(int index) {
+			return getId(index);
+		}
+	}
+	
+	/**
+	 * Endless or sized sequence of indexes into an IdSource, iterators produce primitive ints
+	 * and may be used by different threads at the same time, each thread with its own iterator.
+	 */
+	public interface IndexGenerator extends Iterable<Integer> {
+		@Override
+		PrimitiveIterator.OfInt iterator();
 	}
 	
 	private static final String HELP_STRING
@@ -26,18 +53,63 @@ public class Client {
 		+ "	--rCount n    sets readers threads count, default = 1\n"
 		+ "	--wCount n    sets writers threads count, default = 1\n"
 		+ "	--id (range [A-C) or sequence (A,B,C))    sets ids, default [0-100)\n"
-		+ "note that sequences are used in a random order while ranges used in linear order\n"
+		+ "	--batch n     sends n ids in a single getAmounts/addAmounts call, default = 1\n"
+		+ "	--async [n]   sends requests asynchronously with at most n requests in flight, default n = 256\n"
+		+ "	--connections n    sets number of simultaneous remote calls in async mode, default = 4\n"
+		+ "	--threads (platform|virtual)    runs each reader and writer on a platform or virtual thread (Java 21+), default = platform\n"
+		+ "	--transport (rmi|nio)    calls service over RMI or binary protocol on port " + NioProtocol.DEFAULT_PORT + ", default = rmi\n"
+		+ "	--rate n      sends n requests per second in total at fixed intervals, batch is one request, latency is measured\n"
+		+ "	              from the time request was due and reported at exit, default = as fast as responses come;\n"
+		+ "	              only with --async requests are sent regardless of response times, otherwise a thread waits for\n"
+		+ "	              its response before sending the next overdue request, so the rate drops when responses are slow\n"
+		+ "	--dist (forward|uniform|zipf:theta|hotspot:x:y|latest:theta)    sets order of ids: linear sweep, uniform random,\n"
+		+ "	              zipfian with skew theta in (0, 1) and first ids most popular, x% of requests on first y% of ids,\n"
+		+ "	              or zipfian around the newest id which moves forward one id per " + LatestIndexGenerator.ADVANCE_DRAWS + " requests,\n"
+		+ "	              default = forward for ranges and uniform for sequences\n"
+		+ "	--seed n      sets seed of random distributions to reproduce a run, default = random\n"
+		+ "	--duration s  stops after s seconds of measurement, default = when ids end or on interrupt\n"
+		+ "	--warmUp s    excludes requests of the first s seconds from the results, default = 0\n"
+		+ "	--report file    writes results per operation and per thread to the file as JSON, or as CSV if the name ends with .csv\n"
+		+ "	--nodes host:port[,host:port...]    sends each id to the node owning it by consistent hashing, ports are registry ports\n"
+		+ "	              and binary protocol is expected on port + 1, the list must match the one the nodes were started with,\n"
+		+ "	              default = localhost:" + RemoteAccountService.REGISTRY_PORT + "\n"
+		+ "note that sequences are used in a random order while ranges used in linear order unless --dist is set\n"
 		+ "\n"
 		+ "EXAMPLES:\n"
 		+ "	Client --id 10-100 --rCount 10    creates 10 readers threads and 1 writer thread on id range [10-99]\n"
 		+ "\n"
-		+ "	Client --id 1, 5, 100    creates 1 reader thread and 1 writer thread on id sequence (1, 5, 100)\n";
+		+ "	Client --id 1, 5, 100    creates 1 reader thread and 1 writer thread on id sequence (1, 5, 100)\n"
+		+ "\n"
+		+ "	Client --rCount 8 --wCount 8 --rate 20000 --async    offers 20000 requests per second over 16 threads\n"
+		+ "\n"
+		+ "	Client --id 0-1000000 --dist hotspot:90:1 --seed 42    sends 90% of requests to ids [0-9999]\n"
+		+ "\n"
+		+ "	Client --warmUp 10 --duration 60 --report run.json    measures 60 seconds after 10 seconds of warm-up\n"
+		+ "\n"
+		+ "	Client --nodes localhost:1234,localhost:1244 --batch 10    splits each batch between two nodes\n";
 	
 	private static int rCount = 1;
 	private static int wCount = 1;
+	private static int batch = 1;
+	private static int asyncInFlight = 0;
+	private static int connections = 4;
+	private static boolean nioTransport = false;
+	private static boolean virtualThreads = false;
+	private static double rate = 0;
+	private static String distribution = null;
+	private static String defaultDistribution = null;
+	private static long seed = System.nanoTime();
+	private static int duration = 0;
+	private static int warmUp = 0;
+	private static String reportFile = null;
+	private static List<String> nodes = null;
+	
+	private static final List<WorkerStats> workerStats = new ArrayList<WorkerStats>();
+	private static final AtomicBoolean reported = new AtomicBoolean(false);
+	private static volatile boolean stopped = false;
 	
 	private static IdSource idSource = new RangeIdSource(0, 100);
-	private static Iterable<Integer> iterationStrategy = new ForwardIndexGenerator(100, 100);
+	private static IndexGenerator iterationStrategy = new ForwardIndexGenerator(100, 100);
 	
 	public static void main(String[] args) {
 		if (System.getSecurityManager() == null) {
@@ -52,24 +124,96 @@ public class Client {
 			
 			System.out.printf("wCount: %d\n", wCount);
 			System.out.printf("rCount: %d\n", rCount);
+			System.out.printf("batch: %d\n", batch);
+			if (asyncInFlight > 0) {
+				System.out.printf("async: %d in flight over %d connections\n", asyncInFlight, connections);
+			}
+			System.out.printf("transport: %s\n", nioTransport ? "nio" : "rmi");
+			if (virtualThreads && !VirtualThreads.isAvailable()) {
+				System.out.println("virtual threads are not supported, falling back to platform threads");
+				virtualThreads = false;
+			}
+			System.out.printf("threads: %s\n", virtualThreads ? "virtual" : "platform");
+			if (rate > 0) {
+				System.out.printf("rate: %.1f requests per second\n", rate);
+			}
 			System.out.println(idSource);
+			System.out.printf("distribution: %s, seed: %d\n", distribution != null ? distribution : "forward", seed);
+			if (warmUp > 0 || duration > 0) {
+				System.out.printf("warm-up: %ds, duration: %s\n", warmUp, duration > 0 ? duration + "s" : "unlimited");
+			}
 			
-			Registry registry = LocateRegistry.getRegistry("localhost", 1234);
-			final RemoteAccountService service = (RemoteAccountService) registry.lookup(RemoteAccountService.REGISTRY_LOOKUP_NAME);
+			final List<NioAccountClient> nioClients = new ArrayList<NioAccountClient>();
+			final RemoteAccountService service;
+			if (nodes != null) {
+				System.out.printf("nodes: %s\n", nodes);
+				List<RemoteAccountService> services = new ArrayList<RemoteAccountService>();
+				for (String node: nodes) {
+					services.add(connect(node, nioClients));
+				}
+				service = new RoutingAccountService(new HashRing(nodes), services);
+			} else {
+				service = connect("localhost:" + RemoteAccountService.REGISTRY_PORT, nioClients);
+			}
+			final AsyncAccountService asyncService = asyncInFlight > 0 ? new AsyncAccountService(service, connections, asyncInFlight) : null;
 			
 			int threadsCount = rCount + wCount;
 			final CountDownLatch latch = new CountDownLatch(threadsCount);
+			// workers are shifted by one interval of the total rate, so together they send evenly
+			final long runStart = System.nanoTime() + 10000000;
+			final double workerRate = rate / threadsCount;
+			final long rateInterval = rate > 0 ? (long) (1e9 / rate) : 0;
+			final long measureFrom = runStart + TimeUnit.SECONDS.toNanos(warmUp);
+			final long measureTo = duration > 0 ? measureFrom + TimeUnit.SECONDS.toNanos(duration) : Long.MAX_VALUE;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					report(measureFrom, measureTo);
+				}
+			});
+			ThreadFactory threadFactory = virtualThreads ? VirtualThreads.factory("client-") : new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					return new Thread(r);
+				}
+			};
 			
 			for (int i = 0; i < rCount; ++i) {
-				new Thread(new Runnable() {
+				final RateSchedule schedule = rate > 0 ? new RateSchedule(workerRate, runStart + i * rateInterval) : null;
+				final WorkerStats stats = new WorkerStats("reader-" + i, "read", measureFrom, measureTo);
+				workerStats.add(stats);
+				// created here rather than in the worker, so seeded iterators are created in the same order each run
+				final PrimitiveIterator.OfInt idIterator = iterationStrategy.iterator();
+				threadFactory.newThread(new Runnable() {
 					@Override
 					public void run() {
 						try {
-							Iterator<Integer> idIterator = iterationStrategy.iterator();
-							while (!Thread.interrupted() && idIterator.hasNext()) {
-								service.getAmount(idSource.get(idIterator.next()));
+							if (asyncService != null) {
+								while (isRunning(idIterator)) {
+									long due = schedule != null ? schedule.await() : System.nanoTime();
+									// taken before the call, which blocks while too many requests are in flight
+									long start = System.nanoTime();
+									asyncService.getAmount(idSource.getId(idIterator.nextInt())).whenComplete(stats.recorder(due, start, 1));
+								}
+							}
+							if (batch > 1) {
+								int[] ids = new int[batch];
+								while (isRunning(idIterator)) {
+									int count = fillIds(ids, idIterator);
+									long due = schedule != null ? schedule.await() : System.nanoTime();
+									long start = System.nanoTime();
+									service.getAmounts(count == batch ? ids : Arrays.copyOf(ids, count));
+									stats.record(due, start, count);
+								}
+							}
+							while (isRunning(idIterator)) {
+								long due = schedule != null ? schedule.await() : System.nanoTime();
+								long start = System.nanoTime();
+								service.getAmount(idSource.getId(idIterator.nextInt()));
+								stats.record(due, start, 1);
 							}
 						} catch (Exception e) {
+							stats.error();
 							e.printStackTrace();
 						} finally {
 							latch.countDown();
@@ -79,15 +223,45 @@ public class Client {
 			}
 			
 			for (int i = 0; i < wCount; ++i) {
-				new Thread(new Runnable() {
+				final RateSchedule schedule = rate > 0 ? new RateSchedule(workerRate, runStart + (rCount + i) * rateInterval) : null;
+				final WorkerStats stats = new WorkerStats("writer-" + i, "write", measureFrom, measureTo);
+				workerStats.add(stats);
+				final PrimitiveIterator.OfInt idIterator = iterationStrategy.iterator();
+				threadFactory.newThread(new Runnable() {
 					@Override
 					public void run() {
 						try {
-							Iterator<Integer> idIterator = iterationStrategy.iterator();
-							while (!Thread.interrupted() && idIterator.hasNext()) {
-								service.addAmount(idSource.get(idIterator.next()), 1l);
+							if (asyncService != null) {
+								while (isRunning(idIterator)) {
+									long due = schedule != null ? schedule.await() : System.nanoTime();
+									long start = System.nanoTime();
+									asyncService.addAmount(idSource.getId(idIterator.nextInt()), 1l).whenComplete(stats.recorder(due, start, 1));
+								}
+							}
+							if (batch > 1) {
+								int[] ids = new int[batch];
+								long[] values = new long[batch];
+								Arrays.fill(values, 1l);
+								while (isRunning(idIterator)) {
+									int count = fillIds(ids, idIterator);
+									long due = schedule != null ? schedule.await() : System.nanoTime();
+									long start = System.nanoTime();
+									if (count == batch) {
+										service.addAmounts(ids, values);
+									} else {
+										service.addAmounts(Arrays.copyOf(ids, count), Arrays.copyOf(values, count));
+									}
+									stats.record(due, start, count);
+								}
+							}
+							while (isRunning(idIterator)) {
+								long due = schedule != null ? schedule.await() : System.nanoTime();
+								long start = System.nanoTime();
+								service.addAmount(idSource.getId(idIterator.nextInt()), 1l);
+								stats.record(due, start, 1);
 							}
 						} catch (Exception e) {
+							stats.error();
 							e.printStackTrace();
 						} finally {
 							latch.countDown();
@@ -97,13 +271,101 @@ public class Client {
 			}
 			
 			System.out.println("Running...");
+			if (duration > 0) {
+				latch.await(measureTo - System.nanoTime(), TimeUnit.NANOSECONDS);
+				stopped = true;
+			}
 			latch.await();
+			if (asyncService != null) {
+				asyncService.close();
+			}
+			for (NioAccountClient nioClient: nioClients) {
+				nioClient.close();
+			}
+			report(measureFrom, measureTo);
 			System.out.println("Finished");
 		}catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Looks up the service in the node registry or connects to binary protocol port next to it.
+	 *
+	 * @param node host:port of the node registry
+	 * @param nioClients opened binary protocol clients to close at exit
+	 */
+	private static RemoteAccountService connect(String node, List<NioAccountClient> nioClients) throws Exception {
+		int colon = node.lastIndexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("Node " + node + " is not host:port");
+		}
+		String host = node.substring(0, colon);
+		int port = Integer.parseInt(node.substring(colon + 1));
+		if (nioTransport) {
+			NioAccountClient nioClient = new NioAccountClient(host, port + 1);
+			nioClients.add(nioClient);
+			return nioClient;
+		}
+		Registry registry = LocateRegistry.getRegistry(host, port);
+		return (RemoteAccountService) registry.lookup(RemoteAccountService.REGISTRY_LOOKUP_NAME);
+	}
+	
+	private static boolean isRunning(PrimitiveIterator.OfInt idIterator) {
+		return !stopped && !Thread.interrupted() && idIterator.hasNext();
+	}
+	
+	/**
+	 * Prints results and writes the report file once, at normal end or on interrupt.
+	 * In fixed rate mode latency is measured from the time request was due, otherwise it equals service time.
+	 */
+	private static void report(long measureFrom, long measureTo) {
+		if (!reported.compareAndSet(false, true)) {
+			return;
+		}
+		double seconds = Math.max(0, Math.min(System.nanoTime(), measureTo) - measureFrom) / 1e9;
+		
+		Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+		parameters.put("rCount", rCount);
+		parameters.put("wCount", wCount);
+		parameters.put("batch", batch);
+		parameters.put("async", asyncInFlight);
+		parameters.put("connections", connections);
+		parameters.put("transport", nioTransport ? "nio" : "rmi");
+		parameters.put("threads", virtualThreads ? "virtual" : "platform");
+		parameters.put("rate", rate);
+		parameters.put("ids", idSource.toString());
+		parameters.put("distribution", distribution != null ? distribution : "forward");
+		parameters.put("seed", seed);
+		parameters.put("warmUp", warmUp);
+		parameters.put("duration", duration);
+		parameters.put("nodes", nodes != null ? nodes.toString() : "localhost:" + RemoteAccountService.REGISTRY_PORT);
+		
+		RunReport report = new RunReport(parameters, workerStats, seconds, rate);
+		report.print(System.out);
+		if (reportFile != null) {
+			try {
+				report.write(new File(reportFile));
+				System.out.println("report written to " + reportFile);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Fills array with next ids.
+	 *
+	 * @return number of filled ids, less than array length when iterator is exhausted
+	 */
+	private static int fillIds(int[] ids, PrimitiveIterator.OfInt idIterator) {
+		int count = 0;
+		while (count < ids.length && idIterator.hasNext()) {
+			ids[count++] = idSource.getId(idIterator.nextInt());
+		}
+		return count;
+	}
+	
 	private static boolean parseArgs(String[] args) {
 		int i = 0;
 		while (i < args.length) {
@@ -117,6 +379,83 @@ public class Client {
 				if (i < args.length) {
 					rCount = Integer.valueOf(args[i]);
 				}
+			}else if ("--batch".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					batch = Integer.valueOf(args[i]);
+				}
+			}else if ("--async".equals(args[i])) {
+				asyncInFlight = 256;
+				if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+					++i;
+					asyncInFlight = Integer.valueOf(args[i]);
+				}
+			}else if ("--rate".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					rate = Double.valueOf(args[i]);
+				}
+			}else if ("--dist".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					distribution = args[i];
+				}
+			}else if ("--duration".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					duration = Integer.valueOf(args[i]);
+				}
+			}else if ("--warmUp".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					warmUp = Integer.valueOf(args[i]);
+				}
+			}else if ("--nodes".equals(args[i])) {
+				// accepts both "a:1,b:2" and "a:1 b:2"
+				nodes = new ArrayList<String>();
+				while (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+					nodes.addAll(HashRing.parseNodes(args[++i]));
+				}
+				if (nodes.isEmpty()) {
+					return false;
+				}
+			}else if ("--report".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					reportFile = args[i];
+				}
+			}else if ("--seed".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					seed = Long.valueOf(args[i]);
+				}
+			}else if ("--connections".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					connections = Integer.valueOf(args[i]);
+				}
+			}else if ("--threads".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					if ("virtual".equals(args[i])) {
+						virtualThreads = true;
+					}else if ("platform".equals(args[i])) {
+						virtualThreads = false;
+					}else {
+						return false;
+					}
+				}
+			}else if ("--transport".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					if ("nio".equals(args[i])) {
+						nioTransport = true;
+					}else if ("rmi".equals(args[i])) {
+						nioTransport = false;
+					}else {
+						return false;
+					}
+				}
 			}else if ("--id".equals(args[i])) {
 				++i;
 				i += parseIds(args, i);
@@ -126,9 +465,39 @@ public class Client {
 			++i;
 		}
 		
+		if (distribution == null) {
+			distribution = defaultDistribution;
+		}
+		if (distribution != null) {
+			iterationStrategy = createGenerator(distribution, idSource.size());
+			return iterationStrategy != null;
+		}
 		return true;
 	}
 	
+	/**
+	 * @return endless index generator described by spec or null if spec is wrong
+	 */
+	private static IndexGenerator createGenerator(String spec, int range) {
+		String[] parts = spec.split(":");
+		try {
+			if ("forward".equals(parts[0]) && parts.length == 1) {
+				return new ForwardIndexGenerator(range, -1);
+			}else if ("uniform".equals(parts[0]) && parts.length == 1) {
+				return new RandomIndexGenerator(range, -1, seed);
+			}else if ("zipf".equals(parts[0]) && parts.length == 2) {
+				return new ZipfIndexGenerator(range, -1, Double.valueOf(parts[1]), seed);
+			}else if ("hotspot".equals(parts[0]) && parts.length == 3) {
+				return new HotspotIndexGenerator(range, -1, Double.valueOf(parts[1]) / 100, Double.valueOf(parts[2]) / 100, seed);
+			}else if ("latest".equals(parts[0]) && parts.length == 2) {
+				return new LatestIndexGenerator(range, -1, Double.valueOf(parts[1]), seed);
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+		return null;
+	}
+	
 	private static int parseIds(String[] args, int start) {
 		String s = "";
 		
@@ -159,47 +528,64 @@ public class Client {
 			int end = Integer.valueOf(parts[1]);
 			
 			idSource = new RangeIdSource(begin, end);
-			iterationStrategy = new ForwardIndexGenerator(end-begin, -1);
+			defaultDistribution = "forward";
 		}
 	}
 	
 	private static void parseIdSequence(String s) {
 		String[] parts = s.split(",");
-		List<Integer> list = new ArrayList<Integer>(parts.length);
-		for(String part: parts) {
-			list.add(Integer.valueOf(part));
+		int[] ids = new int[parts.length];
+		for (int i = 0; i < parts.length; ++i) {
+			ids[i] = Integer.valueOf(parts[i]);
 		}
 		
-		idSource = new ListIdSource(list);
-		iterationStrategy = new RandomIndexGenerator(list.size(), -1);
+		idSource = new ArrayIdSource(ids);
+		defaultDistribution = "uniform";
 	}
 	
-	public static class ListIdSource implements IdSource {
-		private final List<Integer> list;
+	public static class ArrayIdSource implements IdSource {
+		private final int[] ids;
 		
-		public ListIdSource(List<Integer> list) {
-			this.list = list;
+		public ArrayIdSource(int[] ids) {
+			this.ids = ids;
 		}
 		
 		@Override
-		public Integer get(int index) {
-			return list.get(index);
+		public int getId(int index) {
+			return ids[index];
 		}
 
 		@Override
 		public int size() {
-			return list.size();
+			return ids.length;
 		}
 		
 		public String toString() {
 			StringBuilder sb = new StringBuilder("Index list:");
-			for(int i: list) {
+			for(int i: ids) {
 				sb.append(i).append(',');
 			}
 			return sb.toString();
 		}
 	}
 	
+	/**
+	 * Array id source copied from the list.
+	 */
+	public static class ListIdSource extends ArrayIdSource {
+		public ListIdSource(List<Integer> list) {
+			super(toArray(list));
+		}
+		
+		private static int[] toArray(List<Integer> list) {
+			int[] ids = new int[list.size()];
+			for (int i = 0; i < ids.length; ++i) {
+				ids[i] = list.get(i);
+			}
+			return ids;
+		}
+	}
+	
 	public static class RangeIdSource implements IdSource {
 		private final int begin;
 		private final int size;
@@ -210,7 +596,7 @@ public class Client {
 		}
 
 		@Override
-		public Integer get(int index) {
+		public int getId(int index) {
 			return begin + index; 
 		}
 
@@ -224,20 +610,36 @@ public class Client {
 		}
 	}
 	
-	public static class RandomIndexGenerator implements Iterable<Integer> {
-		private final int range;
+	/**
+	 * Base of random index generators. Each iterator draws from its own random stream seeded
+	 * from the generator seed and the iterator number, so iterators do not contend on a shared random
+	 * and a run is repeated exactly by the same seed and the same order of iterator() calls.
+	 */
+	public static abstract class SeededIndexGenerator implements IndexGenerator {
+		private static final long SEED_STEP = 0x9e3779b97f4a7c15L;
+		
+		protected final int range;
 		private final int size;
+		private final long seed;
+		private final AtomicLong iterators = new AtomicLong(0);
 		
-		public RandomIndexGenerator(int range, int size) {
+		protected SeededIndexGenerator(int range, int size, long seed) {
 			this.range = range;
 			this.size = size;
+			this.seed = seed;
 		}
-
+		
+		/**
+		 * @param draw number of indexes drawn by the iterator before
+		 */
+		protected abstract int nextIndex(SplittableRandom random, long draw);
+		
 		@Override
-		public Iterator<Integer> iterator() {
-			return new Iterator<Integer>() {
-				private final Random rand = new Random();
-				private int size = RandomIndexGenerator.this.size;
+		public PrimitiveIterator.OfInt iterator() {
+			final SplittableRandom random = new SplittableRandom(seed + iterators.getAndIncrement() * SEED_STEP);
+			return new PrimitiveIterator.OfInt() {
+				private int size = SeededIndexGenerator.this.size;
+				private long draw = 0;
 				
 				@Override
 				public boolean hasNext() {
@@ -245,11 +647,11 @@ public class Client {
 				}
 				
 				@Override
-				public Integer next() {
+				public int nextInt() {
 					if (size > 0) {
 						--size;
 					}
-					return rand.nextInt(range);
+					return nextIndex(random, draw++);
 				}
 				
 				@Override
@@ -260,7 +662,151 @@ public class Client {
 		}
 	}
 	
-	public static class ForwardIndexGenerator implements Iterable<Integer> {
+	public static class RandomIndexGenerator extends SeededIndexGenerator {
+		public RandomIndexGenerator(int range, int size) {
+			this(range, size, System.nanoTime());
+		}
+		
+		public RandomIndexGenerator(int range, int size, long seed) {
+			super(range, size, seed);
+		}
+		
+		@Override
+		protected int nextIndex(SplittableRandom random, long draw) {
+			return random.nextInt(range);
+		}
+	}
+	
+	/**
+	 * Zipfian ranks in [0, n), rank 0 is the most popular. Uses the method of Gray et al.,
+	 * "Quickly generating billion-record synthetic databases": zeta(n) is computed once,
+	 * then each rank costs a single pow().
+	 */
+	static class Zipf {
+		private static final int ZETA_EXACT_TERMS = 1000000;
+		
+		private final int n;
+		private final double theta;
+		private final double zetan;
+		private final double alpha;
+		private final double eta;
+		private final double secondThreshold;
+		
+		Zipf(int n, double theta) {
+			if (!(theta > 0 && theta < 1)) {
+				throw new IllegalArgumentException("zipf theta must be in (0, 1): " + theta);
+			}
+			this.n = n;
+			this.theta = theta;
+			this.zetan = zeta(n, theta);
+			this.alpha = 1 / (1 - theta);
+			this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+			this.secondThreshold = 1 + Math.pow(0.5, theta);
+		}
+		
+		int next(SplittableRandom random) {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			if (uz < 1) {
+				return 0;
+			}
+			if (uz < secondThreshold) {
+				return Math.min(1, n - 1);
+			}
+			return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+		}
+		
+		private static double zeta(int n, double theta) {
+			int exact = Math.min(n, ZETA_EXACT_TERMS);
+			double sum = 0;
+			for (int i = 1; i <= exact; ++i) {
+				sum += 1 / Math.pow(i, theta);
+			}
+			if (n > exact) {
+				// Euler-Maclaurin estimate of the remaining terms, far below double precision of the sum
+				double a = exact + 1;
+				double b = n;
+				sum += (Math.pow(b, 1 - theta) - Math.pow(a, 1 - theta)) / (1 - theta)
+						+ (Math.pow(a, -theta) + Math.pow(b, -theta)) / 2
+						- theta * (Math.pow(b, -theta - 1) - Math.pow(a, -theta - 1)) / 12;
+			}
+			return sum;
+		}
+		
+		@Override
+		public String toString() {
+			return "zipf(" + theta + ")";
+		}
+	}
+	
+	/**
+	 * Zipfian indexes, first indexes are the most popular.
+	 */
+	public static class ZipfIndexGenerator extends SeededIndexGenerator {
+		private final Zipf zipf;
+		
+		/**
+		 * @param theta skew in (0, 1), 0.99 is the usual choice for skewed key-value workloads
+		 */
+		public ZipfIndexGenerator(int range, int size, double theta, long seed) {
+			super(range, size, seed);
+			this.zipf = range > 0 ? new Zipf(range, theta) : null;
+		}
+		
+		@Override
+		protected int nextIndex(SplittableRandom random, long draw) {
+			return zipf.next(random);
+		}
+	}
+	
+	/**
+	 * Uniform indexes within the hot set, first hotSetFraction of indexes, for hotFraction of draws,
+	 * uniform indexes outside the hot set for the rest.
+	 */
+	public static class HotspotIndexGenerator extends SeededIndexGenerator {
+		private final double hotFraction;
+		private final int hotCount;
+		
+		public HotspotIndexGenerator(int range, int size, double hotFraction, double hotSetFraction, long seed) {
+			super(range, size, seed);
+			if (hotFraction < 0 || hotFraction > 1 || hotSetFraction < 0 || hotSetFraction > 1) {
+				throw new IllegalArgumentException("hotspot fractions must be in [0, 100]%");
+			}
+			this.hotFraction = hotFraction;
+			this.hotCount = Math.max(1, (int) (range * hotSetFraction));
+		}
+		
+		@Override
+		protected int nextIndex(SplittableRandom random, long draw) {
+			if (hotCount >= range || random.nextDouble() < hotFraction) {
+				return random.nextInt(Math.min(hotCount, range));
+			}
+			return hotCount + random.nextInt(range - hotCount);
+		}
+	}
+	
+	/**
+	 * Zipfian distance back from the newest index, which moves forward one index per ADVANCE_DRAWS draws
+	 * and wraps at the range end, so recently reached indexes get most of the traffic.
+	 */
+	public static class LatestIndexGenerator extends SeededIndexGenerator {
+		public static final int ADVANCE_DRAWS = 20;
+		
+		private final Zipf zipf;
+		
+		public LatestIndexGenerator(int range, int size, double theta, long seed) {
+			super(range, size, seed);
+			this.zipf = range > 0 ? new Zipf(range, theta) : null;
+		}
+		
+		@Override
+		protected int nextIndex(SplittableRandom random, long draw) {
+			long newest = draw / ADVANCE_DRAWS;
+			return (int) Math.floorMod(newest - zipf.next(random), (long) range);
+		}
+	}
+	
+	public static class ForwardIndexGenerator implements IndexGenerator {
 		private final int range;
 		private final int size;
 		
@@ -270,8 +816,8 @@ public class Client {
 		}
 		
 		@Override
-		public Iterator<Integer> iterator() {
-			return new Iterator<Integer>() {
+		public PrimitiveIterator.OfInt iterator() {
+			return new PrimitiveIterator.OfInt() {
 				private int size = ForwardIndexGenerator.this.size; 
 				private int index = 0;
 				
@@ -281,7 +827,7 @@ public class Client {
 				}
 				
 				@Override
-				public Integer next() {
+				public int nextInt() {
 					if (size > 0) {
 						--size;
 					}
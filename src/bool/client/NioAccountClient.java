@@ -0,0 +1,252 @@
+package bool.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bool.server.NioProtocol;
+import bool.server.RemoteAccountService;
+
+/**
+ * RemoteAccountService over a single NioProtocol connection.
+ * Requests from all threads are pipelined over the connection, responses are read by a dedicated thread
+ * and matched to pending calls by request id.
+ */
+public class NioAccountClient implements RemoteAccountService {
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final SocketChannel channel;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+	private final AtomicInteger nextRequestId = new AtomicInteger(0);
+	private final ConcurrentHashMap<Integer, Call> calls = new ConcurrentHashMap<Integer, Call>();
+	private final Thread reader;
+
+	private volatile boolean running = true;
+	private volatile IOException failure;
+
+	private static class Call {
+		final byte operation;
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+
+		Call(byte operation) {
+			this.operation = operation;
+		}
+	}
+
+	public NioAccountClient(String host, int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runReader();
+			}
+		}, "nio-client-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Long> getAmountAsync(int id) {
+		Call call = new Call(NioProtocol.GET);
+		ByteBuffer buffer = begin(call, 4).putInt(id);
+		return (CompletableFuture<Long>) (CompletableFuture<?>) send(call, buffer);
+	}
+
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Void> addAmountAsync(int id, long value) {
+		Call call = new Call(NioProtocol.ADD);
+		ByteBuffer buffer = begin(call, 12).putInt(id).putLong(value);
+		return (CompletableFuture<Void>) (CompletableFuture<?>) send(call, buffer);
+	}
+
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<long[]> getAmountsAsync(int[] ids) {
+		Call call = new Call(NioProtocol.GET_BATCH);
+		ByteBuffer buffer = begin(call, 4 + 4 * ids.length).putInt(ids.length);
+		for (int id: ids) {
+			buffer.putInt(id);
+		}
+		return (CompletableFuture<long[]>) (CompletableFuture<?>) send(call, buffer);
+	}
+
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Void> addAmountsAsync(int[] ids, long[] values) {
+		if (ids.length != values.length) {
+			throw new IllegalArgumentException("ids and values lengths differ: " + ids.length + " != " + values.length);
+		}
+		Call call = new Call(NioProtocol.ADD_BATCH);
+		ByteBuffer buffer = begin(call, 4 + 12 * ids.length).putInt(ids.length);
+		for (int i = 0; i < ids.length; ++i) {
+			buffer.putInt(ids[i]).putLong(values[i]);
+		}
+		return (CompletableFuture<Void>) (CompletableFuture<?>) send(call, buffer);
+	}
+
+	@Override
+	public Long getAmount(Integer id) throws RemoteException {
+		return await(getAmountAsync(id));
+	}
+
+	@Override
+	public void addAmount(Integer id, Long value) throws RemoteException {
+		await(addAmountAsync(id, value));
+	}
+
+	@Override
+	public long[] getAmounts(int[] ids) throws RemoteException {
+		return await(getAmountsAsync(ids));
+	}
+
+	@Override
+	public void addAmounts(int[] ids, long[] values) throws RemoteException {
+		await(addAmountsAsync(ids, values));
+	}
+
+	/**
+	 * Closes connection, pending calls are failed.
+	 */
+	public void close() throws IOException {
+		running = false;
+		channel.close();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static <T> T await(CompletableFuture<T> future) throws RemoteException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for response", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RemoteException) {
+				throw (RemoteException) e.getCause();
+			}
+			throw new RemoteException("Call failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Takes write lock and puts request header, lock is released by send.
+	 */
+	private ByteBuffer begin(Call call, int argumentsLength) {
+		writeLock.lock();
+		int frameLength = 4 + 1 + 4 + argumentsLength;
+		if (frameLength > writeBuffer.capacity()) {
+			writeBuffer = ByteBuffer.allocateDirect(frameLength);
+		}
+		writeBuffer.clear();
+		return writeBuffer.putInt(frameLength - 4).put(call.operation).putInt(0);
+	}
+
+	private CompletableFuture<Object> send(Call call, ByteBuffer buffer) {
+		try {
+			int requestId = nextRequestId.incrementAndGet();
+			buffer.putInt(5, requestId);
+			calls.put(requestId, call);
+			if (failure != null) {
+				calls.remove(requestId);
+				call.result.completeExceptionally(new RemoteException("Connection closed", failure));
+				return call.result;
+			}
+
+			buffer.flip();
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} catch (IOException e) {
+				calls.remove(requestId);
+				call.result.completeExceptionally(new RemoteException("Connection failed", e));
+			}
+
+			if (writeBuffer.capacity() > WRITE_BUFFER_SIZE) {
+				writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		return call.result;
+	}
+
+	private void runReader() {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		ByteBuffer frame = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		try {
+			while (running) {
+				header.clear();
+				readFully(header);
+				int length = header.getInt(0);
+				if (length < 5 || length > NioProtocol.MAX_FRAME_LENGTH) {
+					throw new IOException("Invalid frame length: " + length);
+				}
+				if (length > frame.capacity()) {
+					frame = ByteBuffer.allocate(length);
+				}
+				frame.clear();
+				frame.limit(length);
+				readFully(frame);
+				frame.flip();
+
+				Call call = calls.remove(frame.getInt());
+				if (call == null) {
+					continue;
+				}
+				if (frame.get() == NioProtocol.ERROR) {
+					byte[] message = new byte[frame.getShort()];
+					frame.get(message);
+					call.result.completeExceptionally(new RemoteException(new String(message, UTF8)));
+				} else {
+					call.result.complete(decode(call.operation, frame));
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+			for (Integer requestId: calls.keySet()) {
+				Call call = calls.remove(requestId);
+				if (call != null) {
+					call.result.completeExceptionally(new RemoteException("Connection closed", e));
+				}
+			}
+		}
+	}
+
+	private static Object decode(byte operation, ByteBuffer frame) {
+		switch (operation) {
+		case NioProtocol.GET:
+			return frame.getLong();
+		case NioProtocol.GET_BATCH:
+			long[] amounts = new long[frame.getInt()];
+			for (int i = 0; i < amounts.length; ++i) {
+				amounts[i] = frame.getLong();
+			}
+			return amounts;
+		default:
+			return null;
+		}
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Connection closed by server");
+			}
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package bool.client;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed rate request schedule of one load worker. Requests are due at fixed intervals from the start
+ * no matter how long previous requests took, so latency measured from the due time includes the time
+ * a request waited behind slow ones instead of hiding it by sending less (coordinated omission).
+ * The load is open only if the worker does not wait for responses; a synchronous worker sends overdue
+ * requests late, which latency from the due time accounts for, but offers less than the rate.
+ */
+public class RateSchedule {
+	private final long interval;
+	private long next;
+
+	/**
+	 * @param ratePerSecond requests per second of this worker
+	 * @param start time of the first request as System.nanoTime()
+	 */
+	public RateSchedule(double ratePerSecond, long start) {
+		this.interval = Math.max(1, (long) (1e9 / ratePerSecond));
+		this.next = start;
+	}
+
+	/**
+	 * Waits until the next request is due, returns at once if it is overdue.
+	 *
+	 * @return time the request was due at as System.nanoTime()
+	 */
+	public long await() {
+		long due = next;
+		next += interval;
+		long delay;
+		while ((delay = due - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(delay);
+		}
+		return due;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+}
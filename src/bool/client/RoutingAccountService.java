@@ -0,0 +1,115 @@
+package bool.client;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+import bool.server.HashRing;
+import bool.server.RemoteAccountService;
+
+/**
+ * Sends each request to the node owning its ids on the hash ring. Batches spanning several nodes are split
+ * into one batch per node, sent one after another, and balances are merged back in the order of ids.
+ */
+public class RoutingAccountService implements RemoteAccountService {
+	private final HashRing ring;
+	private final RemoteAccountService[] nodes;
+
+	/**
+	 * @param nodes services in the order of ring nodes
+	 */
+	public RoutingAccountService(HashRing ring, List<RemoteAccountService> nodes) {
+		if (ring.size() != nodes.size()) {
+			throw new IllegalArgumentException("Ring has " + ring.size() + " nodes, but " + nodes.size() + " services given");
+		}
+		this.ring = ring;
+		this.nodes = nodes.toArray(new RemoteAccountService[nodes.size()]);
+	}
+
+	@Override
+	public Long getAmount(Integer id) throws RemoteException {
+		return nodes[ring.ownerOf(id)].getAmount(id);
+	}
+
+	@Override
+	public void addAmount(Integer id, Long value) throws RemoteException {
+		nodes[ring.ownerOf(id)].addAmount(id, value);
+	}
+
+	@Override
+	public long[] getAmounts(int[] ids) throws RemoteException {
+		int[] owners = new int[ids.length];
+		int[] counts = new int[nodes.length];
+		int owner = countOwners(ids, owners, counts);
+		if (owner >= 0) {
+			return nodes[owner].getAmounts(ids);
+		}
+
+		long[] amounts = new long[ids.length];
+		for (int node = 0; node < nodes.length; ++node) {
+			if (counts[node] > 0) {
+				int[] nodeIds = new int[counts[node]];
+				int count = 0;
+				for (int i = 0; i < ids.length; ++i) {
+					if (owners[i] == node) {
+						nodeIds[count++] = ids[i];
+					}
+				}
+				long[] nodeAmounts = nodes[node].getAmounts(nodeIds);
+				count = 0;
+				for (int i = 0; i < ids.length; ++i) {
+					if (owners[i] == node) {
+						amounts[i] = nodeAmounts[count++];
+					}
+				}
+			}
+		}
+		return amounts;
+	}
+
+	@Override
+	public void addAmounts(int[] ids, long[] values) throws RemoteException {
+		if (ids.length != values.length) {
+			throw new IllegalArgumentException("ids and values lengths differ: " + ids.length + " != " + values.length);
+		}
+		int[] owners = new int[ids.length];
+		int[] counts = new int[nodes.length];
+		int owner = countOwners(ids, owners, counts);
+		if (owner >= 0) {
+			nodes[owner].addAmounts(ids, values);
+			return;
+		}
+
+		for (int node = 0; node < nodes.length; ++node) {
+			if (counts[node] > 0) {
+				int[] nodeIds = new int[counts[node]];
+				long[] nodeValues = new long[counts[node]];
+				int count = 0;
+				for (int i = 0; i < ids.length; ++i) {
+					if (owners[i] == node) {
+						nodeIds[count] = ids[i];
+						nodeValues[count] = values[i];
+						++count;
+					}
+				}
+				nodes[node].addAmounts(nodeIds, nodeValues);
+			}
+		}
+	}
+
+	/**
+	 * Finds owners of the ids and counts ids per node.
+	 *
+	 * @return the node owning all ids or -1 if they are spread over several nodes
+	 */
+	private int countOwners(int[] ids, int[] owners, int[] counts) {
+		if (ids.length == 0) {
+			// any node answers an empty batch
+			return 0;
+		}
+		for (int i = 0; i < ids.length; ++i) {
+			owners[i] = ring.ownerOf(ids[i]);
+			++counts[owners[i]];
+		}
+		return counts[owners[0]] == ids.length ? owners[0] : -1;
+	}
+}
@@ -0,0 +1,212 @@
+package bool.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import bool.server.LatencyHistogram;
+
+/**
+ * Results of a load run: throughput and latency distributions per operation and per worker.
+ * Printed as text and written as JSON, or CSV when the file name ends with .csv.
+ */
+public class RunReport {
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+	/**
+	 * Totals of one worker or of all workers doing the operation.
+	 */
+	private static class Row {
+		final String scope;
+		final String operation;
+		LatencyHistogram.Snapshot latency;
+		LatencyHistogram.Snapshot serviceTime;
+		long ids;
+		long errors;
+
+		Row(String scope, String operation, LatencyHistogram.Snapshot latency, LatencyHistogram.Snapshot serviceTime, long ids, long errors) {
+			this.scope = scope;
+			this.operation = operation;
+			this.latency = latency;
+			this.serviceTime = serviceTime;
+			this.ids = ids;
+			this.errors = errors;
+		}
+	}
+
+	private final Map<String, Object> parameters;
+	private final double seconds;
+	private final double targetRate;
+	private final List<Row> operations = new ArrayList<Row>();
+	private final List<Row> workers = new ArrayList<Row>();
+
+	/**
+	 * @param parameters run parameters copied to the report in iteration order
+	 * @param seconds length of the measured period
+	 * @param targetRate requests per second of fixed rate mode or 0
+	 */
+	public RunReport(Map<String, Object> parameters, List<WorkerStats> stats, double seconds, double targetRate) {
+		this.parameters = parameters;
+		this.seconds = seconds;
+		this.targetRate = targetRate;
+
+		for (WorkerStats worker: stats) {
+			Row row = new Row(worker.getName(), worker.getOperation(), worker.getLatency(), worker.getServiceTime(),
+					worker.getIds(), worker.getErrors());
+			workers.add(row);
+
+			Row total = null;
+			for (Row operation: operations) {
+				if (operation.operation.equals(row.operation)) {
+					total = operation;
+				}
+			}
+			if (total == null) {
+				operations.add(new Row("all", row.operation, row.latency, row.serviceTime, row.ids, row.errors));
+			} else {
+				total.latency = total.latency.plus(row.latency);
+				total.serviceTime = total.serviceTime.plus(row.serviceTime);
+				total.ids += row.ids;
+				total.errors += row.errors;
+			}
+		}
+	}
+
+	public void print(PrintStream out) {
+		long requests = 0;
+		for (Row row: operations) {
+			requests += row.latency.getCount();
+		}
+		out.printf("measured %.1fs, %d requests, %.1f/s%s\n", seconds, requests, perSecond(requests),
+				targetRate > 0 ? String.format(" of target %.1f/s", targetRate) : "");
+		for (Row row: operations) {
+			print(out, row);
+		}
+		for (Row row: workers) {
+			print(out, row);
+		}
+	}
+
+	/**
+	 * Writes JSON report, or CSV table of operation and worker rows if the file name ends with .csv.
+	 */
+	public void write(File file) throws IOException {
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			if (file.getName().endsWith(".csv")) {
+				writeCsv(writer);
+			} else {
+				writeJson(writer);
+			}
+		} finally {
+			writer.close();
+		}
+		if (writer.checkError()) {
+			throw new IOException("Cannot write report " + file);
+		}
+	}
+
+	private void print(PrintStream out, Row row) {
+		out.printf("%-10s %-5s %.1f/s, ids %.1f/s, errors %d\n", row.scope, row.operation,
+				perSecond(row.latency.getCount()), perSecond(row.ids), row.errors);
+		out.printf("           latency: %s\n           service: %s\n", row.latency, row.serviceTime);
+	}
+
+	private void writeCsv(PrintWriter writer) {
+		StringBuilder header = new StringBuilder("scope,operation,requests,ids,requests_per_second,ids_per_second,errors");
+		for (String histogram: new String[] {"latency", "service"}) {
+			for (String percentile: PERCENTILE_NAMES) {
+				header.append(',').append(histogram).append('_').append(percentile.replace(".", "")).append("_ms");
+			}
+			header.append(',').append(histogram).append("_max_ms");
+		}
+		writer.println(header);
+
+		List<Row> rows = new ArrayList<Row>(operations);
+		rows.addAll(workers);
+		for (Row row: rows) {
+			StringBuilder line = new StringBuilder();
+			line.append(row.scope).append(',').append(row.operation).append(',').append(row.latency.getCount()).append(',')
+				.append(row.ids).append(',').append(number(perSecond(row.latency.getCount()))).append(',')
+				.append(number(perSecond(row.ids))).append(',').append(row.errors);
+			for (LatencyHistogram.Snapshot histogram: new LatencyHistogram.Snapshot[] {row.latency, row.serviceTime}) {
+				for (double percentile: PERCENTILES) {
+					line.append(',').append(number(histogram.getValueAtPercentile(percentile) / 1e6));
+				}
+				line.append(',').append(number(histogram.getMax() / 1e6));
+			}
+			writer.println(line);
+		}
+	}
+
+	private void writeJson(PrintWriter writer) {
+		writer.println("{");
+		writer.println("  \"parameters\": {");
+		int index = 0;
+		for (Map.Entry<String, Object> parameter: parameters.entrySet()) {
+			Object value = parameter.getValue();
+			writer.printf("    %s: %s%s\n", quote(parameter.getKey()), value instanceof Number ? value : quote(String.valueOf(value)),
+					++index < parameters.size() ? "," : "");
+		}
+		writer.println("  },");
+		writer.printf("  \"seconds\": %s,\n", number(seconds));
+		writer.printf("  \"targetRate\": %s,\n", number(targetRate));
+		writeJsonRows(writer, "operations", operations);
+		writer.println(",");
+		writeJsonRows(writer, "workers", workers);
+		writer.println();
+		writer.println("}");
+	}
+
+	private void writeJsonRows(PrintWriter writer, String name, List<Row> rows) {
+		writer.printf("  %s: [", quote(name));
+		for (int i = 0; i < rows.size(); ++i) {
+			Row row = rows.get(i);
+			writer.printf("%s\n    {\"scope\": %s, \"operation\": %s, \"requests\": %d, \"ids\": %d, "
+					+ "\"requestsPerSecond\": %s, \"idsPerSecond\": %s, \"errors\": %d,\n"
+					+ "     \"latencyMs\": %s,\n     \"serviceTimeMs\": %s}",
+					i > 0 ? "," : "", quote(row.scope), quote(row.operation), row.latency.getCount(), row.ids,
+					number(perSecond(row.latency.getCount())), number(perSecond(row.ids)), row.errors,
+					jsonPercentiles(row.latency), jsonPercentiles(row.serviceTime));
+		}
+		writer.print("\n  ]");
+	}
+
+	private static String jsonPercentiles(LatencyHistogram.Snapshot histogram) {
+		StringBuilder json = new StringBuilder("{");
+		for (int i = 0; i < PERCENTILES.length; ++i) {
+			json.append(quote(PERCENTILE_NAMES[i])).append(": ").append(number(histogram.getValueAtPercentile(PERCENTILES[i]) / 1e6)).append(", ");
+		}
+		return json.append("\"max\": ").append(number(histogram.getMax() / 1e6)).append('}').toString();
+	}
+
+	private double perSecond(long count) {
+		return seconds > 0 ? count / seconds : 0;
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c: value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
@@ -1,22 +1,34 @@
 package bool.client;
 
 import java.rmi.RMISecurityManager;
+import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
+import bool.server.RemoteStatListener;
 import bool.server.RemoteStatService;
+import bool.server.StatDelta;
+import bool.server.StatSnapshot;
 
 public class ServiceClient {
 	
 	private static final String HELP_STRING
 		= "USAGE:\n"
 		+ "	--reset    clear remote statistics\n"
-		+ "	--printer [msTimeout]    print statistics periodically with given timeout, default 500ms\n";
+		+ "	--printer [msTimeout]    print new per-second statistics samples periodically with given timeout, default 500ms\n"
+		+ "	--history    print all samples kept by the service first\n"
+		+ "	--follow    print statistics pushed by the service after every collection instead of polling it\n"
+		+ "	--hot    print the most frequently read and changed accounts along with statistics\n";
 	
 	private static boolean reset = false;
 	private static int printer = -1;
+	private static boolean history = false;
+	private static boolean hot = false;
+	private static boolean follow = false;
 
 	public static void main(String[] args) {
 		if (System.getSecurityManager() == null) {
@@ -38,24 +50,114 @@ public class ServiceClient {
 				stat.reset();
 			}
 			
-			if (printer > 0) {
+			long lastTimestamp = history ? 0 : stat.snapshot().timestamp - 1;
+			if (history) {
+				lastTimestamp = printSamples(stat.statSince(lastTimestamp), lastTimestamp);
+			}
+			
+			if (follow) {
+				follow(stat, lastTimestamp);
+			} else if (printer > 0) {
 				while (!Thread.interrupted()) {
-					System.out.println(stat.stat());
+					long timestamp = printSamples(stat.statSince(lastTimestamp), lastTimestamp);
+					if (timestamp != lastTimestamp) {
+						System.out.println(stat.latency());
+						if (hot) {
+							printHotAccounts(stat);
+						}
+						lastTimestamp = timestamp;
+					}
 					Thread.sleep(printer);
 				}
-			} else {
+			} else if (!history) {
 				System.out.println(stat.stat());
+				System.out.println(stat.latency());
+				if (hot) {
+					printHotAccounts(stat);
+				}
 			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Subscribes to statistics pushes and prints them until interrupted.
+	 */
+	private static void follow(final RemoteStatService stat, final long lastTimestamp) throws Exception {
+		final RemoteStatListener listener = new RemoteStatListener() {
+			private StatSnapshot snapshot;
+			
+			@Override
+			public synchronized void update(StatDelta delta) {
+				snapshot = delta.applyTo(snapshot);
+				if (snapshot.timestamp <= lastTimestamp) {
+					return;
+				}
+				printSample(snapshot);
+				if (hot && delta.hotReads != null) {
+					System.out.println("hot reads: " + delta.hotReads);
+				}
+				if (hot && delta.hotWrites != null) {
+					System.out.println("hot writes: " + delta.hotWrites);
+				}
+			}
+		};
+		final RemoteStatListener stub = (RemoteStatListener) UnicastRemoteObject.exportObject(listener, 0);
+		stat.subscribe(stub);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					stat.unsubscribe(stub);
+				} catch (RemoteException e) {
+					// service is gone, nothing to unsubscribe from
+				}
+			}
+		});
+		try {
+			while (!Thread.interrupted()) {
+				Thread.sleep(1000);
+			}
+		} finally {
+			UnicastRemoteObject.unexportObject(listener, true);
+		}
+	}
+	
+	/**
+	 * @return timestamp of the last printed sample
+	 */
+	private static long printSamples(List<StatSnapshot> samples, long lastTimestamp) {
+		for (StatSnapshot sample: samples) {
+			printSample(sample);
+			lastTimestamp = sample.timestamp;
+		}
+		return lastTimestamp;
+	}
+	
+	private static void printSample(StatSnapshot sample) {
+		System.out.printf("%tT %s, read p50:%.3fms p99:%.3fms p99.9:%.3fms max:%.3fms, write p50:%.3fms p99:%.3fms p99.9:%.3fms max:%.3fms%n",
+				sample.timestamp, sample,
+				sample.readP50 / 1e6, sample.readP99 / 1e6, sample.readP999 / 1e6, sample.readMax / 1e6,
+				sample.writeP50 / 1e6, sample.writeP99 / 1e6, sample.writeP999 / 1e6, sample.writeMax / 1e6);
+	}
+	
+	private static void printHotAccounts(RemoteStatService stat) throws RemoteException {
+		System.out.println("hot reads: " + stat.hotReads());
+		System.out.println("hot writes: " + stat.hotWrites());
+	}
+	
 	private static boolean parseArgs(String[] args) {
 		int i = 0;
 		while (i < args.length) {
 			if ("--reset".equals(args[i])) {
 				reset = true;
+			}else if ("--hot".equals(args[i])) {
+				hot = true;
+			}else if ("--follow".equals(args[i])) {
+				follow = true;
+			}else if ("--history".equals(args[i])) {
+				history = true;
 			}else if ("--printer".equals(args[i])) {
 				printer = 500;
 				++i;
@@ -0,0 +1,95 @@
+package bool.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import bool.server.LatencyHistogram;
+
+/**
+ * Requests and latencies of one load worker. Only requests due within the measured period are counted,
+ * so warm-up requests do not skew the results.
+ */
+public class WorkerStats {
+	private final String name;
+	private final String operation;
+	private final long measureFrom;
+	private final long measureTo;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram serviceTime = new LatencyHistogram();
+	private final AtomicLong ids = new AtomicLong(0);
+	private final AtomicLong errors = new AtomicLong(0);
+
+	/**
+	 * @param measureFrom start of the measured period as System.nanoTime()
+	 * @param measureTo end of the measured period as System.nanoTime(), Long.MAX_VALUE for endless run
+	 */
+	public WorkerStats(String name, String operation, long measureFrom, long measureTo) {
+		this.name = name;
+		this.operation = operation;
+		this.measureFrom = measureFrom;
+		this.measureTo = measureTo;
+	}
+
+	/**
+	 * Records completed request.
+	 *
+	 * @param due time request was due at in fixed rate mode, otherwise the time it was sent at
+	 * @param start time request was sent at
+	 * @param count number of ids in the request
+	 */
+	public void record(long due, long start, int count) {
+		if (due < measureFrom || due >= measureTo) {
+			return;
+		}
+		long now = System.nanoTime();
+		latency.record(now - due);
+		serviceTime.record(now - start);
+		ids.addAndGet(count);
+	}
+
+	public void error() {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * @return completion handler of asynchronous request, records it or prints its error
+	 */
+	public BiConsumer<Object, Throwable> recorder(final long due, final long start, final int count) {
+		return new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object result, Throwable e) {
+				if (e != null) {
+					error();
+					e.printStackTrace();
+				} else {
+					record(due, start, count);
+				}
+			}
+		};
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public LatencyHistogram.Snapshot getLatency() {
+		return latency.snapshot();
+	}
+
+	public LatencyHistogram.Snapshot getServiceTime() {
+		return serviceTime.snapshot();
+	}
+
+	public long getIds() {
+		return ids.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+}
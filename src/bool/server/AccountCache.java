@@ -0,0 +1,143 @@
+package bool.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded id to entry map with frequency-aware CLOCK eviction.
+ * Each hit raises entry frequency up to MAX_FREQUENCY, eviction hand walks entries in insertion order
+ * decreasing frequencies and evicts the first entry which reached zero and agreed to retire.
+ * New entries start with zero frequency, so entries used once are evicted before frequently used ones.
+ */
+public class AccountCache<V extends AccountCache.Entry> {
+	public static final int MAX_FREQUENCY = 3;
+
+	/**
+	 * Cached value, decides itself whether it may be evicted at the moment.
+	 */
+	public static abstract class Entry {
+		volatile int frequency;
+
+		public abstract int getId();
+
+		/**
+		 * Makes entry unusable for further changes if it has no changes in progress or unsaved changes.
+		 *
+		 * @return true if entry may be removed from cache
+		 */
+		protected abstract boolean retire();
+	}
+
+	private final ConcurrentHashMap<Integer, V> entries = new ConcurrentHashMap<Integer, V>();
+	private final ConcurrentLinkedQueue<V> clock = new ConcurrentLinkedQueue<V>();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final int capacity;
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	private final AtomicLong hitCount = new AtomicLong(0);
+	private final AtomicLong missCount = new AtomicLong(0);
+	private final AtomicLong evictionCount = new AtomicLong(0);
+
+	/**
+	 * @param capacity maximum number of entries, it may be exceeded while entries refuse to retire
+	 */
+	public AccountCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	public V get(int id) {
+		V entry = entries.get(id);
+		if (entry == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		hitCount.incrementAndGet();
+		int frequency = entry.frequency;
+		if (frequency < MAX_FREQUENCY) {
+			entry.frequency = frequency + 1;
+		}
+		return entry;
+	}
+
+	/**
+	 * Puts entry unless there is another one for the same id, evicts entries when capacity is exceeded.
+	 *
+	 * @return previous entry or null if the given entry was put
+	 */
+	public V putIfAbsent(V entry) {
+		V previous = entries.putIfAbsent(entry.getId(), entry);
+		if (previous != null) {
+			return previous;
+		}
+
+		clock.offer(entry);
+		if (size.incrementAndGet() > capacity) {
+			evict();
+		}
+		return null;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Iterates all cached entries, consistent with concurrent changes as ConcurrentHashMap iteration.
+	 */
+	public Iterable<V> values() {
+		return entries.values();
+	}
+
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			// another thread is already evicting
+			return;
+		}
+		try {
+			int steps = (MAX_FREQUENCY + 1) * size.get();
+			while (size.get() > capacity && steps-- > 0) {
+				V entry = clock.poll();
+				if (entry == null) {
+					break;
+				}
+
+				if (entry.frequency > 0) {
+					--entry.frequency;
+					clock.offer(entry);
+				} else if (entry.retire()) {
+					entries.remove(entry.getId(), entry);
+					size.decrementAndGet();
+					evictionCount.incrementAndGet();
+				} else {
+					clock.offer(entry);
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+}
@@ -1,40 +1,179 @@
 package bool.server;
 
+import java.io.File;
+import java.io.IOException;
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import bool.server.ConnectionPool.PooledConnection;
+
 public class AccountService implements RemoteAccountService {
 	public static final String URL = "jdbc:oracle:thin:@";
 	public static String host = "localhost:1521/XE";
 	
 	private static String username = "username";
 	private static String password = "password";
+	private static String storageType = "oracle";
+	private static String storageFile = null;
+	private static int poolSize = 8;
+	private static long poolTimeout = 5000;
+	private static boolean writeBehind = false;
+	private static int flushInterval = 100;
+	private static int flushBatch = 500;
+	private static int dirtyLimit = 100000;
+	private static int cacheSize = 1000000;
+	private static boolean compactStore = false;
+	private static boolean warmUp = false;
+	private static int warmUpFrom = Integer.MIN_VALUE;
+	private static int warmUpTo = Integer.MAX_VALUE;
+	private static int warmUpThreads = Runtime.getRuntime().availableProcessors();
+	private static int port = RemoteAccountService.REGISTRY_PORT;
+	private static int nioPort = -1;
+	private static int nioWorkers = 0;
+	private static boolean virtualThreads = false;
+	private static int statHistoryMinutes = 10;
+	private static int hotSampling = 16;
+	private static String journalDir = null;
+	private static String snapshotFile = null;
+	private static int snapshotInterval = 60;
+	private static List<String> nodes = null;
+	private static String node = null;
 	
 	private static final String HELP_STRING
 		= "USAGE:\n"
 		+ "	--host [url]/SID    set server address and sid, default: " + host + "\n"
 		+ "	--username user     set username for database connection, default: " + username + "\n"
-		+ "	--password pass     set password for database connection, default: " + password + "\n";
+		+ "	--password pass     set password for database connection, default: " + password + "\n"
+		+ "	--storage (oracle|memory|file:path)    keep accounts in Oracle database, in process memory or in process memory backed by the file, default: " + storageType + "\n"
+		+ "	--poolSize n        set maximum number of database connections, default: " + poolSize + "\n"
+		+ "	--poolTimeout ms    set time to wait for a free database connection, default: " + poolTimeout + "\n"
+		+ "	--writeMode (sync|behind)    write each increment to database before reply (sync) or flush changed accounts in batches (behind), default: sync\n"
+		+ "	--flushInterval ms    set maximum delay of write-behind flush, default: " + flushInterval + "\n"
+		+ "	--flushBatch n        set maximum number of accounts written in one write-behind batch, default: " + flushBatch + "\n"
+		+ "	--dirtyLimit n        set maximum number of accounts waiting for write-behind flush, default: " + dirtyLimit + "\n"
+		+ "	--cacheSize n         set maximum number of cached accounts, default: " + cacheSize + "\n"
+		+ "	--store (handlers|compact)    keep accounts as evictable handler objects or in unbounded primitive table sized for cacheSize accounts, default: handlers\n"
+		+ "	--warmUp [A-B]        load all accounts or accounts with ids in range [A-B] into memory before start\n"
+		+ "	--warmUpThreads n     set number of parallel warm-up range scans, at most pool size, default: " + warmUpThreads + "\n"
+		+ "	--port n              set port of RMI registry and services, default: " + port + "\n"
+		+ "	--nioPort n           set port of binary protocol server, 0 disables it, default: registry port + 1 (" + NioProtocol.DEFAULT_PORT + ")\n"
+		+ "	--nioWorkers n        set number of binary protocol worker threads, default: twice the pool size\n"
+		+ "	--threads (platform|virtual)    run binary protocol requests on a fixed pool of platform threads or on a virtual thread each (Java 21+), database access is limited by the pool size either way, virtual threads queue for it without the pool timeout, default: platform\n"
+		+ "	--statHistory minutes    set how long per-second statistics samples are kept, default: " + statHistoryMinutes + "\n"
+		+ "	--hotSampling n       count one of n accessed ids on average for hot accounts detection, 0 disables it, default: " + hotSampling + "\n"
+		+ "	--journal dir         acknowledge increments once they are forced to the journal in the directory and write them to storage behind, journal left by previous run is replayed on start\n"
+		+ "	--snapshot file       checkpoint accounts in memory to the file periodically and on exit, on start serve reads from the file until accounts are reconciled with storage\n"
+		+ "	--snapshotInterval s  set seconds between snapshot checkpoints, default: " + snapshotInterval + "\n"
+		+ "	--nodes host:port,... serve only ids this node owns among the nodes by consistent hashing, refuse others,\n"
+		+ "	                      the same list must be given to all nodes and clients\n"
+		+ "	--node host:port      set name of this node in the nodes list, default: localhost:port\n";
+	
+	private final AccountCache<AccountHandler> cachingHandlers;
+	private final Accounts accounts;
+	
+	private static final int WARM_UP_FETCH_SIZE = 10000;
+	private static final int RECONCILE_BATCH = 1000;
 	
-	private final ConcurrentHashMap<Integer, AccountHandler> cachingHandlers = new ConcurrentHashMap<Integer, AccountHandler>();
+	private final AtomicLong readerRequestsCounter = new AtomicLong(0);
+	private final AtomicLong writerRequestsCounter = new AtomicLong(0);
 	
-	private final AtomicInteger readerRequestsCounter = new AtomicInteger(0);
-	private final AtomicInteger writerRequestsCounter = new AtomicInteger(0);
+	private final LatencyHistogram getAmountLatency = new LatencyHistogram();
+	private final LatencyHistogram addAmountLatency = new LatencyHistogram();
+	private final LatencyHistogram getAmountsLatency = new LatencyHistogram();
+	private final LatencyHistogram addAmountsLatency = new LatencyHistogram();
+	private final LatencyHistogram journalSyncLatency = new LatencyHistogram();
 	
-	private final Db db;
+	private static final int HOT_ACCOUNTS_TRACKED = 64;
+	private static final int HOT_ACCOUNTS_REPORTED = 10;
+	private static final long HOT_ACCOUNTS_WINDOW = 10000;
+	
+	private final HeavyHitters hotReads = hotSampling > 0 ? new HeavyHitters(HOT_ACCOUNTS_TRACKED, hotSampling) : null;
+	private final HeavyHitters hotWrites = hotSampling > 0 ? new HeavyHitters(HOT_ACCOUNTS_TRACKED, hotSampling) : null;
+	
+	private final Storage storage;
 	private final Stat stat;
 	
+	private volatile WriteBehindQueue<AccountHandler> dirtyHandlers;
+	private volatile Journal journal;
+	private volatile AccountSnapshot restoredSnapshot;
+	private volatile HashRing ring;
+	private volatile int ringNode;
+	
+	/**
+	 * In-memory account balances persisted to database.
+	 */
+	private interface Accounts {
+		long get(int id) throws SQLException;
+		void add(int id, long value) throws SQLException, IOException, InterruptedException;
+		
+		/**
+		 * Loads missing accounts with batched database reads.
+		 *
+		 * @return balances in the same order as ids
+		 */
+		long[] getAll(int[] ids) throws SQLException;
+		
+		/**
+		 * Adds values to balances and persists them with a single batched database write.
+		 */
+		void addAll(int[] ids, long[] values) throws SQLException, IOException, InterruptedException;
+		
+		/**
+		 * Puts stored account state unless the account is already in memory.
+		 *
+		 * @return false if there is no room for more accounts
+		 */
+		boolean preload(int id, long value, long sequence);
+		
+		int size();
+		void enableWriteBehind(int capacity, int batchSize, long flushInterval);
+		
+		/**
+		 * @return number of accounts waiting for write-behind flush
+		 */
+		int dirtyCount();
+		
+		/**
+		 * Passes state of every account in memory to the handler.
+		 */
+		void forEach(Storage.RecordHandler handler);
+		
+		/**
+		 * @return write-behind queue mark, see WriteBehindQueue.mark(), or -1 if write-behind is disabled
+		 */
+		long flushMark();
+		
+		boolean isFlushed(long mark);
+		
+		/**
+		 * Stops write-behind flusher after all pending changes are written.
+		 */
+		void close() throws InterruptedException;
+	}
+	
 	public static void main(String[] args) {
 		if (System.getSecurityManager() == null) {
             System.setSecurityManager(new RMISecurityManager());
@@ -46,14 +185,104 @@ public class AccountService implements RemoteAccountService {
 				return;
 			}
 			
-			System.out.println("URL: " + URL + host);
-			System.out.println("username: " + username);
+			System.out.println("storage: " + storageType + (storageFile != null ? " " + storageFile : ""));
+			if ("oracle".equals(storageType)) {
+				System.out.println("URL: " + URL + host);
+				System.out.println("username: " + username);
+				System.out.println("pool size: " + poolSize);
+			}
+			if (journalDir != null) {
+				writeBehind = true;
+				System.out.println("journal: " + journalDir);
+			}
+			System.out.println("write mode: " + (writeBehind ? "behind" : "sync"));
+			System.out.println("cache size: " + cacheSize);
+			System.out.println("store: " + (compactStore ? "compact" : "handlers"));
+			if (nioPort < 0) {
+				nioPort = port + 1;
+			}
+			if (virtualThreads && !VirtualThreads.isAvailable()) {
+				System.out.println("virtual threads are not supported, falling back to platform threads");
+				virtualThreads = false;
+			}
 			
-			AccountService service = new AccountService(URL + host, username, password);
-			RemoteAccountService accountServiceStub = (RemoteAccountService) UnicastRemoteObject.exportObject(service, 1234);
-			RemoteStatService statServiceStub = (RemoteStatService) UnicastRemoteObject.exportObject(service.getStatService(), 1234);
+			Storage storage;
+			if ("memory".equals(storageType)) {
+				storage = new MemoryStorage();
+			} else if ("file".equals(storageType)) {
+				storage = new MemoryStorage(new File(storageFile));
+			} else {
+				storage = new Db(URL + host, username, password, poolSize, poolTimeout);
+			}
+			if (virtualThreads && storage.getPool() != null) {
+				// any number of virtual threads may reach the database, they queue for it instead of timing out on the pool
+				storage = new GatedStorage(storage, storage.getPool().getSize());
+				System.out.println("storage gate: " + storage.getPool().getSize() + " calls");
+			}
 			
-			Registry registry = LocateRegistry.createRegistry(1234);
+			final AccountService service = new AccountService(storage, cacheSize, compactStore);
+			if (nodes != null) {
+				String name = node != null ? node : "localhost:" + port;
+				service.setShard(new HashRing(nodes), name);
+				System.out.println("shard: " + name + " of " + nodes);
+			}
+			if (writeBehind) {
+				service.enableWriteBehind(dirtyLimit, flushBatch, flushInterval);
+			}
+			if (journalDir != null) {
+				service.enableJournal(new File(journalDir), Journal.DEFAULT_SEGMENT_SIZE);
+			}
+			if (snapshotFile != null) {
+				System.out.println("snapshot: " + snapshotFile + ", interval: " + snapshotInterval + "s");
+				if (new File(snapshotFile).exists()) {
+					service.restore(new File(snapshotFile));
+				}
+				startCheckpoints(service, new File(snapshotFile), snapshotInterval * 1000L);
+			}
+			if (warmUp) {
+				service.warmUp(warmUpFrom, warmUpTo, warmUpThreads);
+			}
+			
+			final NioAccountServer nioServer;
+			if (nioPort > 0) {
+				if (virtualThreads) {
+					nioServer = new NioAccountServer(service, nioPort, VirtualThreads.newThreadPerTaskExecutor("nio-worker-"));
+					System.out.println("binary protocol port: " + nioPort + ", workers: virtual");
+				} else {
+					int workers = nioWorkers > 0 ? nioWorkers : poolSize * 2;
+					nioServer = new NioAccountServer(service, nioPort, Executors.newFixedThreadPool(workers));
+					System.out.println("binary protocol port: " + nioPort + ", workers: " + workers);
+				}
+				nioServer.start();
+			} else {
+				nioServer = null;
+			}
+			
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					if (nioServer != null) {
+						try {
+							nioServer.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					service.close();
+					if (snapshotFile != null) {
+						try {
+							service.checkpoint(new File(snapshotFile));
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			});
+			
+			RemoteAccountService accountServiceStub = (RemoteAccountService) UnicastRemoteObject.exportObject(service, port);
+			RemoteStatService statServiceStub = (RemoteStatService) UnicastRemoteObject.exportObject(service.getStatService(), port);
+			
+			Registry registry = LocateRegistry.createRegistry(port);
 			registry.bind(RemoteAccountService.REGISTRY_LOOKUP_NAME, accountServiceStub);
 			registry.bind(RemoteStatService.REGISTRY_LOOKUP_NAME, statServiceStub);
 			
@@ -68,6 +297,32 @@ public class AccountService implements RemoteAccountService {
 		}
 	}
 	
+	private static void startCheckpoints(final AccountService service, final File file, final long interval) {
+		Thread checkpointer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!Thread.interrupted()) {
+						Thread.sleep(interval);
+						try {
+							long start = System.currentTimeMillis();
+							int count = service.checkpoint(file);
+							if (count >= 0) {
+								System.out.printf("Snapshot: %d accounts written in %dms\n", count, System.currentTimeMillis() - start);
+							}
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				} catch (InterruptedException e) {
+					// stopped
+				}
+			}
+		}, "snapshot-checkpoint");
+		checkpointer.setDaemon(true);
+		checkpointer.start();
+	}
+	
 	private static boolean parseArgs(String[] args) {
 		int i = 0;
 		while (i < args.length) {
@@ -81,9 +336,153 @@ public class AccountService implements RemoteAccountService {
 				if (i < args.length) {
 					password = args[i];
 				}
+			}else if ("--storage".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					if ("oracle".equals(args[i]) || "memory".equals(args[i])) {
+						storageType = args[i];
+					}else if (args[i].startsWith("file:") && args[i].length() > "file:".length()) {
+						storageType = "file";
+						storageFile = args[i].substring("file:".length());
+					}else {
+						return false;
+					}
+				}
 			}else if ("--host".equals(args[i])) {
 				++i;
 				host = args[i];
+			}else if ("--poolSize".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					poolSize = Integer.valueOf(args[i]);
+				}
+			}else if ("--poolTimeout".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					poolTimeout = Long.valueOf(args[i]);
+				}
+			}else if ("--writeMode".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					if ("behind".equals(args[i])) {
+						writeBehind = true;
+					}else if ("sync".equals(args[i])) {
+						writeBehind = false;
+					}else {
+						return false;
+					}
+				}
+			}else if ("--flushInterval".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					flushInterval = Integer.valueOf(args[i]);
+				}
+			}else if ("--flushBatch".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					flushBatch = Integer.valueOf(args[i]);
+				}
+			}else if ("--dirtyLimit".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					dirtyLimit = Integer.valueOf(args[i]);
+				}
+			}else if ("--cacheSize".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					cacheSize = Integer.valueOf(args[i]);
+				}
+			}else if ("--warmUp".equals(args[i])) {
+				warmUp = true;
+				if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+					++i;
+					String[] range = args[i].split("(?<=\\d)-");
+					if (range.length != 2) {
+						return false;
+					}
+					warmUpFrom = Integer.valueOf(range[0]);
+					warmUpTo = Integer.valueOf(range[1]);
+				}
+			}else if ("--warmUpThreads".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					warmUpThreads = Integer.valueOf(args[i]);
+				}
+			}else if ("--port".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					port = Integer.valueOf(args[i]);
+				}
+			}else if ("--nodes".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					nodes = HashRing.parseNodes(args[i]);
+					if (nodes.isEmpty()) {
+						return false;
+					}
+				}
+			}else if ("--node".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					node = args[i];
+				}
+			}else if ("--nioPort".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					nioPort = Integer.valueOf(args[i]);
+				}
+			}else if ("--nioWorkers".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					nioWorkers = Integer.valueOf(args[i]);
+				}
+			}else if ("--hotSampling".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					hotSampling = Integer.valueOf(args[i]);
+				}
+			}else if ("--journal".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					journalDir = args[i];
+				}
+			}else if ("--snapshot".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					snapshotFile = args[i];
+				}
+			}else if ("--snapshotInterval".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					snapshotInterval = Integer.valueOf(args[i]);
+				}
+			}else if ("--statHistory".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					statHistoryMinutes = Integer.valueOf(args[i]);
+				}
+			}else if ("--threads".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					if ("virtual".equals(args[i])) {
+						virtualThreads = true;
+					}else if ("platform".equals(args[i])) {
+						virtualThreads = false;
+					}else {
+						return false;
+					}
+				}
+			}else if ("--store".equals(args[i])) {
+				++i;
+				if (i < args.length) {
+					if ("compact".equals(args[i])) {
+						compactStore = true;
+					}else if ("handlers".equals(args[i])) {
+						compactStore = false;
+					}else {
+						return false;
+					}
+				}
 			}else {
 				return false;
 			}
@@ -94,33 +493,408 @@ public class AccountService implements RemoteAccountService {
 	}
 	
 	public AccountService(String url, String username, String password) throws SQLException {
-		db = new Db(url, username, password);
+		this(url, username, password, Db.DEFAULT_POOL_SIZE, Db.DEFAULT_POOL_TIMEOUT);
+	}
+	
+	public AccountService(String url, String username, String password, int poolSize, long poolTimeout) throws SQLException {
+		this(new Db(url, username, password, poolSize, poolTimeout), cacheSize);
+	}
+	
+	/**
+	 * @param cacheSize maximum number of cached accounts
+	 */
+	public AccountService(Storage storage, int cacheSize) {
+		this(storage, cacheSize, false);
+	}
+	
+	/**
+	 * @param cacheSize maximum number of cached handlers or expected number of accounts in compact store
+	 * @param compactStore keep accounts in primitive table instead of handler objects, table is never evicted
+	 */
+	public AccountService(Storage storage, int cacheSize, boolean compactStore) {
+		this.storage = storage;
+		if (compactStore) {
+			cachingHandlers = null;
+			accounts = new CompactAccounts(cacheSize);
+		} else {
+			cachingHandlers = new AccountCache<AccountHandler>(cacheSize);
+			accounts = new CachedAccounts();
+		}
 		stat = new Stat();
 	}
 	
+	/**
+	 * Switches increments to write-behind mode: balances are changed in memory
+	 * and changed accounts are written to database in batches by a background flusher.
+	 *
+	 * @param capacity maximum number of accounts waiting for flush, writers are blocked when exceeded
+	 * @param batchSize maximum number of accounts written in one database batch
+	 * @param flushInterval maximum time in milliseconds account waits for a batch to fill
+	 */
+	public void enableWriteBehind(int capacity, int batchSize, long flushInterval) {
+		accounts.enableWriteBehind(capacity, batchSize, flushInterval);
+	}
+	
+	/**
+	 * Makes increments durable through the journal: an increment is acknowledged once its account state
+	 * is forced to the journal and reaches the storage later with write-behind flush, which must be enabled first.
+	 * Journal left in the directory by previous run is replayed into the storage before.
+	 *
+	 * @param segmentSize journal segment size in bytes, segment is deleted when all its records are flushed
+	 */
+	public void enableJournal(File directory, long segmentSize) throws IOException, SQLException {
+		if (accounts.flushMark() < 0) {
+			throw new IllegalStateException("Journal requires write-behind mode");
+		}
+		
+		long start = System.currentTimeMillis();
+		long replayed = Journal.replay(directory, storage);
+		if (replayed > 0) {
+			System.out.printf("Journal: %d records replayed in %dms\n", replayed, System.currentTimeMillis() - start);
+		}
+		
+		journal = new Journal(directory, segmentSize, new Journal.Barrier() {
+			@Override
+			public long mark() {
+				return accounts.flushMark();
+			}
+			
+			@Override
+			public boolean isPassed(long mark) {
+				return accounts.isFlushed(mark);
+			}
+		}, journalSyncLatency);
+	}
+	
+	/**
+	 * Puts stored account state into memory unless the account is already there, as warm-up does.
+	 *
+	 * @return false if there is no room for more accounts
+	 */
+	public boolean preload(int id, long value, long sequence) {
+		return accounts.preload(id, value, sequence);
+	}
+	
+	/**
+	 * Loads stored accounts with ids in range [fromId, toId] into memory with parallel range scans,
+	 * stops when cache is full. Accounts owned by other nodes of the ring are skipped. Progress is printed every second.
+	 *
+	 * @param threads number of simultaneous scans, limited to the database connection pool size
+	 * @return number of loaded accounts
+	 */
+	public long warmUp(int fromId, int toId, int threads) throws SQLException, InterruptedException {
+		ConnectionPool pool = storage.getPool();
+		if (pool != null && threads > pool.getSize()) {
+			// scans hold connections for long, extra threads would only time out waiting for one
+			System.out.printf("Warm-up: %d threads limited to pool size %d\n", threads, pool.getSize());
+			threads = pool.getSize();
+		}
+		int[] bounds = storage.idRange(fromId, toId);
+		if (bounds == null) {
+			System.out.println("Warm-up: no accounts in range");
+			return 0;
+		}
+		
+		long first = bounds[0];
+		long last = bounds[1];
+		long rangesCount = Math.min(last - first + 1, threads * 16L);
+		long rangeSize = (last - first + rangesCount) / rangesCount;
+		
+		final AtomicLong loaded = new AtomicLong(0);
+		final AtomicInteger scannedRanges = new AtomicInteger(0);
+		final AtomicBoolean full = new AtomicBoolean(false);
+		
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		try {
+			for (long from = first; from <= last; from += rangeSize) {
+				final int rangeFrom = (int) from;
+				final int rangeTo = (int) Math.min(last, from + rangeSize - 1);
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws SQLException {
+						if (!full.get()) {
+							storage.scan(rangeFrom, rangeTo, WARM_UP_FETCH_SIZE, new Storage.RecordHandler() {
+								@Override
+								public boolean record(int id, long value, long sequence) {
+									if (!owns(id)) {
+										return !full.get();
+									}
+									if (!accounts.preload(id, value, sequence)) {
+										full.set(true);
+										return false;
+									}
+									loaded.incrementAndGet();
+									return !full.get();
+								}
+							});
+						}
+						scannedRanges.incrementAndGet();
+						return null;
+					}
+				}));
+			}
+			executor.shutdown();
+			
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				System.out.printf("Warm-up: %d accounts loaded, %d%% of id range scanned\n",
+						loaded.get(), 100 * scannedRanges.get() / results.size());
+			}
+			for (Future<Void> result: results) {
+				result.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		System.out.printf("Warm-up: %d accounts loaded in %dms%s\n", loaded.get(), System.currentTimeMillis() - start,
+				full.get() ? ", cache is full" : "");
+		return loaded.get();
+	}
+	
+	/**
+	 * Writes state of all accounts in memory to the snapshot file. Skipped while restored snapshot
+	 * is being reconciled, as accounts still served from it are not in memory.
+	 *
+	 * @return number of written accounts or -1 if skipped
+	 */
+	public int checkpoint(File file) throws IOException {
+		if (restoredSnapshot != null) {
+			return -1;
+		}
+		AccountSnapshot.Builder builder = new AccountSnapshot.Builder(System.currentTimeMillis());
+		accounts.forEach(builder);
+		return builder.write(file);
+	}
+	
+	/**
+	 * Maps the snapshot file and serves reads of accounts not in memory from it at once. Background thread
+	 * loads stored state of the snapshot accounts, each account is served from storage once its state is loaded,
+	 * so reads may return state as of the snapshot until then. Changes always start from stored state.
+	 *
+	 * @return number of accounts in the snapshot
+	 */
+	public int restore(File file) throws IOException {
+		final AccountSnapshot restored = AccountSnapshot.open(file);
+		System.out.printf("Snapshot: %d accounts restored, taken at %tF %<tT\n", restored.size(), restored.getHighWaterMark());
+		restoredSnapshot = restored;
+		
+		Thread reconciler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+				try {
+					reconcile(restored);
+					System.out.printf("Snapshot: %d accounts reconciled in %dms\n", restored.size(), System.currentTimeMillis() - start);
+				} catch (SQLException e) {
+					// reads fall back to storage
+					e.printStackTrace();
+				} finally {
+					restoredSnapshot = null;
+				}
+			}
+		}, "snapshot-reconciler");
+		reconciler.setDaemon(true);
+		reconciler.start();
+		return restored.size();
+	}
+	
+	/**
+	 * Makes the service one of the nodes sharing accounts by consistent hashing,
+	 * requests with ids owned by other nodes are refused.
+	 *
+	 * @param node name of this node in the ring
+	 */
+	public void setShard(HashRing ring, String node) {
+		int index = ring.getNodes().indexOf(node);
+		if (index < 0) {
+			throw new IllegalArgumentException("Node " + node + " is not in " + ring);
+		}
+		ringNode = index;
+		this.ring = ring;
+	}
+	
+	/**
+	 * @return true while reads may be served from restored snapshot
+	 */
+	public boolean isReconciling() {
+		return restoredSnapshot != null;
+	}
+	
+	private void reconcile(AccountSnapshot restored) throws SQLException {
+		int[] ids = new int[RECONCILE_BATCH];
+		for (int from = 0; from < restored.size(); from += RECONCILE_BATCH) {
+			int count = Math.min(RECONCILE_BATCH, restored.size() - from);
+			for (int i = 0; i < count; ++i) {
+				ids[i] = restored.getId(from + i);
+			}
+			storage.readRecords(ids, count, new Storage.RecordHandler() {
+				@Override
+				public boolean record(int id, long value, long sequence) {
+					// a snapshot taken before the ring changed may hold accounts of other nodes
+					if (owns(id)) {
+						accounts.preload(id, value, sequence);
+					}
+					return true;
+				}
+			});
+			for (int i = 0; i < count; ++i) {
+				restored.invalidateAt(from + i);
+			}
+		}
+	}
+	
+	/**
+	 * Stops serving the account from restored snapshot once its stored state is loaded.
+	 */
+	private void invalidateSnapshot(int id) {
+		AccountSnapshot restored = restoredSnapshot;
+		if (restored != null) {
+			restored.invalidate(id);
+		}
+	}
+	
+	/**
+	 * Flushes pending write-behind changes, closes the journal and releases database connections.
+	 */
+	public void close() {
+		try {
+			accounts.close();
+			if (journal != null) {
+				journal.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stat.close();
+		storage.close();
+	}
+	
 	@Override
 	public Long getAmount(Integer id) throws RemoteException {
+		checkOwner(id);
 		readerRequestsCounter.incrementAndGet();
+		if (hotReads != null) {
+			hotReads.offer(id);
+		}
 		
+		long start = System.nanoTime();
 		try {
-			AccountHandler handler = getAccountHandler(id);
-			return handler.get();
+			return accounts.get(id);
 		} catch (SQLException e) {
 			e.printStackTrace();
 			throw new RemoteException("Internal database error");
+		} finally {
+			getAmountLatency.recordSince(start);
 		}
 	}
 
 	@Override
 	public void addAmount(Integer id, Long value) throws RemoteException {
+		checkOwner(id);
 		writerRequestsCounter.incrementAndGet();
+		if (hotWrites != null) {
+			hotWrites.offer(id);
+		}
 		
+		long start = System.nanoTime();
 		try {
-			AccountHandler handler = getAccountHandler(id);
-			handler.increment(value);
+			accounts.add(id, value);
 		} catch (SQLException e) {
 			e.printStackTrace();
 			throw new RemoteException("Internal database error");
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RemoteException("Journal write failed");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for write-behind queue");
+		} finally {
+			addAmountLatency.recordSince(start);
+		}
+	}
+	
+	@Override
+	public long[] getAmounts(int[] ids) throws RemoteException {
+		checkOwner(ids);
+		readerRequestsCounter.addAndGet(ids.length);
+		if (hotReads != null) {
+			for (int id: ids) {
+				hotReads.offer(id);
+			}
+		}
+		
+		long start = System.nanoTime();
+		try {
+			return accounts.getAll(ids);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RemoteException("Internal database error");
+		} finally {
+			getAmountsLatency.recordSince(start);
+		}
+	}
+	
+	@Override
+	public void addAmounts(int[] ids, long[] values) throws RemoteException {
+		if (ids.length != values.length) {
+			throw new IllegalArgumentException("ids and values lengths differ: " + ids.length + " != " + values.length);
+		}
+		checkOwner(ids);
+		writerRequestsCounter.addAndGet(ids.length);
+		if (hotWrites != null) {
+			for (int id: ids) {
+				hotWrites.offer(id);
+			}
+		}
+		
+		long start = System.nanoTime();
+		try {
+			accounts.addAll(ids, values);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RemoteException("Internal database error");
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RemoteException("Journal write failed");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for write-behind queue");
+		} finally {
+			addAmountsLatency.recordSince(start);
+		}
+	}
+	
+	/**
+	 * @return true unless the account is owned by another node of the ring
+	 */
+	private boolean owns(int id) {
+		HashRing ring = this.ring;
+		return ring == null || ring.ownerOf(id) == ringNode;
+	}
+	
+	private void checkOwner(int id) throws RemoteException {
+		if (!owns(id)) {
+			throw new RemoteException("Account " + id + " is owned by node " + ring.getNode(ring.ownerOf(id)));
+		}
+	}
+	
+	/**
+	 * Refuses the whole batch if any id is owned by another node, so it is never applied partially.
+	 */
+	private void checkOwner(int[] ids) throws RemoteException {
+		if (ring != null) {
+			for (int id: ids) {
+				checkOwner(id);
+			}
 		}
 	}
 	
@@ -132,6 +906,26 @@ public class AccountService implements RemoteAccountService {
 		return stat.stat();
 	}
 	
+	public String latency() {
+		return stat.latency();
+	}
+	
+	public StatSnapshot snapshot() {
+		return stat.snapshot();
+	}
+	
+	public List<StatSnapshot> statSince(long timestamp) {
+		return stat.statSince(timestamp);
+	}
+	
+	public List<HotAccount> hotReads() {
+		return stat.hotReads();
+	}
+	
+	public List<HotAccount> hotWrites() {
+		return stat.hotWrites();
+	}
+	
 	public void collectData() {
 		stat.collectData();
 	}
@@ -140,127 +934,1032 @@ public class AccountService implements RemoteAccountService {
 		return stat;
 	}
 	
-	private AccountHandler getAccountHandler(int id) throws SQLException {
-		AccountHandler handler = cachingHandlers.get(id);
-		if (handler == null) {
-			handler = new AccountHandler(id);
-			AccountHandler fasterCreatedHandler = cachingHandlers.putIfAbsent(id, handler);
-			if (fasterCreatedHandler != null) {
-				handler = fasterCreatedHandler;
+	private AccountHandler getAccountHandler(int id) throws SQLException {
+		return getAccountHandler(id, cachingHandlers.get(id));
+	}
+	
+	/**
+	 * @param handler result of cache lookup
+	 */
+	private AccountHandler getAccountHandler(int id, AccountHandler handler) throws SQLException {
+		if (handler == null) {
+			handler = new AccountHandler(id);
+			AccountHandler fasterCreatedHandler = cachingHandlers.putIfAbsent(handler);
+			if (fasterCreatedHandler != null) {
+				handler = fasterCreatedHandler;
+			}
+		}
+		handler.ensureLoaded();
+		return handler;
+	}
+	
+	/**
+	 * Resolves handlers with one cache pass, handlers missing in cache are loaded with batched database reads.
+	 */
+	private AccountHandler[] getAccountHandlers(int[] ids) throws SQLException {
+		AccountHandler[] handlers = new AccountHandler[ids.length];
+		final Map<Integer, AccountHandler> unloaded = new HashMap<Integer, AccountHandler>();
+		for (int i = 0; i < ids.length; ++i) {
+			AccountHandler handler = cachingHandlers.get(ids[i]);
+			if (handler == null) {
+				handler = new AccountHandler(ids[i]);
+				AccountHandler fasterCreatedHandler = cachingHandlers.putIfAbsent(handler);
+				if (fasterCreatedHandler != null) {
+					handler = fasterCreatedHandler;
+				}
+			}
+			if (!handler.loaded) {
+				unloaded.put(ids[i], handler);
+			}
+			handlers[i] = handler;
+		}
+		
+		if (!unloaded.isEmpty()) {
+			int[] unloadedIds = new int[unloaded.size()];
+			int count = 0;
+			for (int id: unloaded.keySet()) {
+				unloadedIds[count++] = id;
+			}
+			storage.readRecords(unloadedIds, count, new Storage.RecordHandler() {
+				@Override
+				public boolean record(int id, long value, long sequence) {
+					unloaded.get(id).load(value, sequence);
+					return true;
+				}
+			});
+			for (AccountHandler handler: unloaded.values()) {
+				// not stored yet
+				handler.load(0, 0);
+			}
+		}
+		return handlers;
+	}
+	
+	/**
+	 * Accounts kept as handler objects in bounded cache, evicted accounts are loaded again on demand.
+	 */
+	private class CachedAccounts implements Accounts {
+		@Override
+		public long get(int id) throws SQLException {
+			AccountSnapshot restored = restoredSnapshot;
+			if (restored == null) {
+				return getAccountHandler(id).get();
+			}
+			
+			AccountHandler handler = cachingHandlers.get(id);
+			if (handler == null || !handler.loaded) {
+				int index = restored.indexOfValid(id);
+				if (index >= 0) {
+					return restored.getValue(index);
+				}
+			}
+			return getAccountHandler(id, handler).get();
+		}
+		
+		@Override
+		public void add(int id, long value) throws SQLException, IOException, InterruptedException {
+			AccountHandler handler = getAccountHandler(id);
+			while (!handler.increment(value)) {
+				// handler was evicted, take the new one
+				handler = getAccountHandler(id);
+			}
+		}
+		
+		@Override
+		public long[] getAll(int[] ids) throws SQLException {
+			AccountHandler[] handlers = getAccountHandlers(ids);
+			long[] values = new long[ids.length];
+			for (int i = 0; i < handlers.length; ++i) {
+				values[i] = handlers[i].get();
+			}
+			return values;
+		}
+		
+		@Override
+		public void addAll(int[] ids, long[] values) throws SQLException, IOException, InterruptedException {
+			AccountHandler[] handlers = getAccountHandlers(ids);
+			int pinned = 0;
+			try {
+				while (pinned < handlers.length) {
+					while (!handlers[pinned].pin()) {
+						// handler was evicted, take the new one
+						handlers[pinned] = getAccountHandler(ids[pinned]);
+					}
+					handlers[pinned].add(values[pinned]);
+					++pinned;
+				}
+				
+				if (dirtyHandlers != null) {
+					for (AccountHandler handler: handlers) {
+						handler.markDirty();
+					}
+					Journal current = journal;
+					if (current != null) {
+						long position = 0;
+						for (AccountHandler handler: handlers) {
+							// sequence is read before amount, so the amount includes all increments up to the sequence
+							long seq = handler.sequence.get();
+							position = current.append(handler.id, handler.amount.get(), seq);
+						}
+						current.await(position);
+					}
+					return;
+				}
+				
+				long[] snapshot = new long[handlers.length];
+				long[] sequences = new long[handlers.length];
+				for (int i = 0; i < handlers.length; ++i) {
+					sequences[i] = handlers[i].sequence.get();
+					snapshot[i] = handlers[i].amount.get();
+				}
+				storage.upsertBatch(ids, snapshot, sequences, ids.length);
+				for (int i = 0; i < handlers.length; ++i) {
+					handlers[i].persisted(sequences[i]);
+				}
+			} finally {
+				for (int i = 0; i < pinned; ++i) {
+					handlers[i].unpin();
+				}
+			}
+		}
+		
+		@Override
+		public boolean preload(int id, long value, long sequence) {
+			if (cachingHandlers.size() >= cachingHandlers.getCapacity()) {
+				return false;
+			}
+			cachingHandlers.putIfAbsent(new AccountHandler(id, value, sequence));
+			invalidateSnapshot(id);
+			return true;
+		}
+		
+		@Override
+		public int size() {
+			return cachingHandlers.size();
+		}
+		
+		@Override
+		public void enableWriteBehind(int capacity, int batchSize, long flushInterval) {
+			dirtyHandlers = new WriteBehindQueue<AccountHandler>(new WriteBehindQueue.Sink<AccountHandler>() {
+				@Override
+				public void flush(List<AccountHandler> batch) throws SQLException, WriteBehindQueue.RejectedException {
+					flushHandlers(batch);
+				}
+			}, capacity, batchSize, flushInterval);
+		}
+		
+		@Override
+		public int dirtyCount() {
+			WriteBehindQueue<AccountHandler> queue = dirtyHandlers;
+			return queue != null ? queue.size() : 0;
+		}
+		
+		@Override
+		public void forEach(Storage.RecordHandler handler) {
+			for (AccountHandler accountHandler: cachingHandlers.values()) {
+				if (accountHandler.loaded) {
+					// sequence is read before amount, so the amount includes all increments up to the sequence
+					long seq = accountHandler.sequence.get();
+					if (!handler.record(accountHandler.id, accountHandler.amount.get(), seq)) {
+						return;
+					}
+				}
+			}
+		}
+		
+		@Override
+		public long flushMark() {
+			WriteBehindQueue<AccountHandler> queue = dirtyHandlers;
+			return queue != null ? queue.mark() : -1;
+		}
+		
+		@Override
+		public boolean isFlushed(long mark) {
+			return dirtyHandlers.isFlushed(mark);
+		}
+		
+		@Override
+		public void close() throws InterruptedException {
+			WriteBehindQueue<AccountHandler> queue = dirtyHandlers;
+			if (queue != null) {
+				queue.close();
+			}
+		}
+	}
+	
+	/**
+	 * Accounts kept in primitive table, once loaded account stays in memory.
+	 */
+	private class CompactAccounts implements Accounts {
+		private final CompactAccountTable table;
+		private final long[] flushSnapshot = new long[2];
+		private volatile WriteBehindQueue<Integer> dirtyIds;
+		
+		public CompactAccounts(int expectedSize) {
+			table = new CompactAccountTable(expectedSize, 64);
+		}
+		
+		@Override
+		public long get(int id) throws SQLException {
+			if (!table.contains(id)) {
+				// loaded accounts are never evicted, so a missing account was never loaded and snapshot is still valid for it
+				AccountSnapshot restored = restoredSnapshot;
+				int index = restored != null ? restored.indexOfValid(id) : -1;
+				if (index >= 0) {
+					return restored.getValue(index);
+				}
+				load(id);
+			}
+			return table.get(id);
+		}
+		
+		@Override
+		public void add(int id, long value) throws SQLException, IOException, InterruptedException {
+			long sequence = table.add(id, value);
+			if (sequence < 0) {
+				load(id);
+				sequence = table.add(id, value);
+			}
+			
+			WriteBehindQueue<Integer> queue = dirtyIds;
+			if (queue != null) {
+				if (table.markDirty(id)) {
+					queue.add(id);
+				}
+				Journal current = journal;
+				if (current != null) {
+					current.write(id, table.get(id), sequence);
+				}
+				return;
+			}
+			
+			storage.upsert(id, table.get(id), sequence);
+		}
+		
+		@Override
+		public long[] getAll(int[] ids) throws SQLException {
+			loadAll(ids);
+			long[] values = new long[ids.length];
+			for (int i = 0; i < ids.length; ++i) {
+				values[i] = table.get(ids[i]);
+			}
+			return values;
+		}
+		
+		@Override
+		public void addAll(int[] ids, long[] values) throws SQLException, IOException, InterruptedException {
+			loadAll(ids);
+			long[] sequences = new long[ids.length];
+			for (int i = 0; i < ids.length; ++i) {
+				sequences[i] = table.add(ids[i], values[i]);
+			}
+			
+			WriteBehindQueue<Integer> queue = dirtyIds;
+			if (queue != null) {
+				for (int id: ids) {
+					if (table.markDirty(id)) {
+						queue.add(id);
+					}
+				}
+				Journal current = journal;
+				if (current != null) {
+					long position = 0;
+					for (int i = 0; i < ids.length; ++i) {
+						position = current.append(ids[i], table.get(ids[i]), sequences[i]);
+					}
+					current.await(position);
+				}
+				return;
+			}
+			
+			long[] snapshot = new long[ids.length];
+			for (int i = 0; i < ids.length; ++i) {
+				snapshot[i] = table.get(ids[i]);
+			}
+			storage.upsertBatch(ids, snapshot, sequences, ids.length);
+		}
+		
+		@Override
+		public boolean preload(int id, long value, long sequence) {
+			table.putIfAbsent(id, value, sequence);
+			return true;
+		}
+		
+		@Override
+		public int size() {
+			return table.size();
+		}
+		
+		@Override
+		public void enableWriteBehind(int capacity, int batchSize, long flushInterval) {
+			dirtyIds = new WriteBehindQueue<Integer>(new WriteBehindQueue.Sink<Integer>() {
+				@Override
+				public void flush(List<Integer> batch) throws SQLException, WriteBehindQueue.RejectedException {
+					flushIds(batch);
+				}
+			}, capacity, batchSize, flushInterval);
+		}
+		
+		@Override
+		public int dirtyCount() {
+			WriteBehindQueue<Integer> queue = dirtyIds;
+			return queue != null ? queue.size() : 0;
+		}
+		
+		@Override
+		public void forEach(Storage.RecordHandler handler) {
+			table.forEach(handler);
+		}
+		
+		@Override
+		public long flushMark() {
+			WriteBehindQueue<Integer> queue = dirtyIds;
+			return queue != null ? queue.mark() : -1;
+		}
+		
+		@Override
+		public boolean isFlushed(long mark) {
+			return dirtyIds.isFlushed(mark);
+		}
+		
+		@Override
+		public void close() throws InterruptedException {
+			WriteBehindQueue<Integer> queue = dirtyIds;
+			if (queue != null) {
+				queue.close();
+			}
+		}
+		
+		private void load(int id) throws SQLException {
+			Storage.Record record = storage.readRecord(id);
+			table.putIfAbsent(id, record.value, record.sequence);
+		}
+		
+		private void loadAll(int[] ids) throws SQLException {
+			int[] missing = new int[ids.length];
+			int count = 0;
+			for (int id: ids) {
+				if (!table.contains(id)) {
+					missing[count++] = id;
+				}
+			}
+			if (count == 0) {
+				return;
+			}
+			
+			storage.readRecords(missing, count, new Storage.RecordHandler() {
+				@Override
+				public boolean record(int id, long value, long sequence) {
+					table.putIfAbsent(id, value, sequence);
+					return true;
+				}
+			});
+			for (int i = 0; i < count; ++i) {
+				// not stored yet
+				table.putIfAbsent(missing[i], 0, 0);
+			}
+		}
+		
+		private void flushIds(List<Integer> batch) throws SQLException, WriteBehindQueue.RejectedException {
+			int[] ids = new int[batch.size()];
+			long[] values = new long[batch.size()];
+			long[] sequences = new long[batch.size()];
+			int count = 0;
+			
+			for (int id: batch) {
+				if (table.snapshot(id, flushSnapshot)) {
+					ids[count] = id;
+					values[count] = flushSnapshot[0];
+					sequences[count++] = flushSnapshot[1];
+				}
+			}
+			
+			try {
+				storage.upsertBatch(ids, values, sequences, count);
+			} catch (SQLException e) {
+				// entries stay queued
+				for (int id: batch) {
+					table.markDirty(id);
+				}
+				throw writeFailure(e);
+			}
+		}
+	}
+	
+	private void flushHandlers(List<AccountHandler> batch) throws SQLException, WriteBehindQueue.RejectedException {
+		int[] ids = new int[batch.size()];
+		long[] values = new long[batch.size()];
+		long[] sequences = new long[batch.size()];
+		int count = 0;
+		
+		for (AccountHandler handler: batch) {
+			handler.dirty.set(false);
+			ids[count] = handler.id;
+			sequences[count] = handler.sequence.get();
+			values[count++] = handler.amount.get();
+		}
+		
+		try {
+			storage.upsertBatch(ids, values, sequences, count);
+		} catch (SQLException e) {
+			// entries stay queued, so handlers must not be evicted
+			for (AccountHandler handler: batch) {
+				handler.dirty.set(true);
+			}
+			throw writeFailure(e);
+		}
+		
+		for (int i = 0; i < count; ++i) {
+			batch.get(i).persisted(sequences[i]);
+		}
+	}
+	
+	/**
+	 * Tells write-behind queue whether storage refused the records themselves, data exception or
+	 * integrity constraint violation (SQLState class 22 or 23), or failed to write them.
+	 *
+	 * @return the exception if storage failed
+	 * @throws WriteBehindQueue.RejectedException if storage refused the records
+	 */
+	private static SQLException writeFailure(SQLException e) throws WriteBehindQueue.RejectedException {
+		for (SQLException error = e; error != null; error = error.getNextException()) {
+			String state = error.getSQLState();
+			if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+				throw new WriteBehindQueue.RejectedException(e);
 			}
 		}
-		return handler;
+		return e;
 	}
 	
-	private class AccountHandler {
-		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-		private final ReentrantReadWriteLock.WriteLock wLock = lock.writeLock();
-		private final ReentrantReadWriteLock.ReadLock rLock = lock.readLock();
+	/**
+	 * Lock-free account balance. Every increment gets the next sequence number,
+	 * database accepts a write only if its sequence number is greater than the stored one,
+	 * so concurrent writers never replace newer persisted state with older one.
+	 * Writers pin the handler, handler can be evicted only when it is not pinned and all its changes are persisted.
+	 * Handler is put into cache before it is loaded, so a load never reads state older than evicted handler had.
+	 */
+	private class AccountHandler extends AccountCache.Entry {
+		private static final int RETIRED = -1;
+		
+		private final AtomicBoolean dirty = new AtomicBoolean(false);
+		private final AtomicInteger pins = new AtomicInteger(0);
+		
+		private final int id;
+		private final AtomicLong amount;
+		private final AtomicLong sequence;
+		private final AtomicLong persistedSequence;
 		
-		private int id;
-		private long amount;
+		private volatile boolean loaded;
+		private final ReentrantLock loadLock = new ReentrantLock();
+		
+		// stored state the handler started from, guarded by loadLock
+		private long baseValue;
+		private long baseSequence;
+		
+		/**
+		 * Creates handler which loads its state on first use.
+		 */
+		public AccountHandler(int id) {
+			this.id = id;
+			this.amount = new AtomicLong(0);
+			this.sequence = new AtomicLong(0);
+			this.persistedSequence = new AtomicLong(0);
+		}
 		
-		public AccountHandler(int id) throws SQLException {
+		public AccountHandler(int id, long value, long sequence) {
 			this.id = id;
-			this.amount = db.read(id);
+			this.amount = new AtomicLong(value);
+			this.sequence = new AtomicLong(sequence);
+			this.persistedSequence = new AtomicLong(sequence);
+			this.baseValue = value;
+			this.baseSequence = sequence;
+			this.loaded = true;
+		}
+		
+		/**
+		 * Reads state from database on first use, lock is used instead of monitor
+		 * so a virtual thread waiting for database does not pin its carrier thread.
+		 */
+		public void ensureLoaded() throws SQLException {
+			if (!loaded) {
+				loadLock.lock();
+				try {
+					if (!loaded) {
+						Storage.Record record = storage.readRecord(id);
+						load(record.value, record.sequence);
+					}
+				} finally {
+					loadLock.unlock();
+				}
+			}
+		}
+		
+		/**
+		 * Sets stored state unless handler is already loaded.
+		 */
+		public void load(long value, long sequence) {
+			loadLock.lock();
+			try {
+				if (!loaded) {
+					this.amount.set(value);
+					this.sequence.set(sequence);
+					this.persistedSequence.set(sequence);
+					this.baseValue = value;
+					this.baseSequence = sequence;
+					loaded = true;
+					// handler may be evicted later, reads must not fall back to the older snapshot state
+					invalidateSnapshot(id);
+				}
+			} finally {
+				loadLock.unlock();
+			}
+		}
+		
+		@Override
+		public int getId() {
+			return id;
 		}
 		
 		public long get() {
-			rLock.lock();
+			return amount.get();
+		}
+		
+		/**
+		 * @return false if handler was evicted and the value was not added
+		 */
+		public boolean increment(long value) throws SQLException, IOException, InterruptedException {
+			if (!pin()) {
+				return false;
+			}
+			
 			try {
-				return amount;
+				add(value);
+				if (!markDirty()) {
+					persist();
+				} else {
+					journal();
+				}
+				return true;
 			} finally {
-				rLock.unlock();
+				unpin();
 			}
 		}
 		
-		public void increment(long value) throws SQLException {
-			wLock.lock();
+		/**
+		 * Changes balance in memory, handler must be pinned.
+		 */
+		private void add(long value) {
+			amount.addAndGet(value);
+			sequence.incrementAndGet();
+		}
+		
+		/**
+		 * Queues handler for write-behind flush.
+		 *
+		 * @return false if write-behind is disabled
+		 */
+		private boolean markDirty() throws InterruptedException {
+			WriteBehindQueue<AccountHandler> queue = dirtyHandlers;
+			if (queue == null) {
+				return false;
+			}
+			if (dirty.compareAndSet(false, true)) {
+				queue.add(this);
+			}
+			return true;
+		}
+		
+		/**
+		 * Writes balance to the journal if it is enabled, queued for flush handler must be pinned.
+		 */
+		private void journal() throws IOException, InterruptedException {
+			Journal current = journal;
+			if (current != null) {
+				long seq = sequence.get();
+				current.write(id, amount.get(), seq);
+			}
+		}
+		
+		private void persist() throws SQLException {
+			while (true) {
+				// sequence is read before amount, so the amount includes all increments up to the sequence
+				long seq = sequence.get();
+				long snapshot = amount.get();
+				if (persistedSequence.get() >= seq) {
+					return;
+				}
+				if (storage.upsert(id, snapshot, seq) > 0 || !rebase()) {
+					persisted(seq);
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * Resolves rejected write: stored record is at least as new as the written state. Unless the stored state
+		 * was written by this handler, it comes from another handler of the account whose changes this handler
+		 * has not seen, so the stored state is reloaded and changes of this handler are applied on top of it.
+		 *
+		 * @return false if stored state was written by this handler
+		 */
+		private boolean rebase() throws SQLException {
+			loadLock.lock();
 			try {
-				amount += value;
-				if (db.update(id, amount) == 0) {
-					db.insert(id, amount);
+				Storage.Record stored = storage.readRecord(id);
+				if (stored.sequence <= sequence.get()) {
+					return false;
 				}
+				// amount is shifted before sequence, so a state read as sequence then amount is never newer than its sequence
+				amount.addAndGet(stored.value - baseValue);
+				sequence.addAndGet(stored.sequence - baseSequence);
+				baseValue = stored.value;
+				baseSequence = stored.sequence;
+				System.out.printf("Account %d: write conflict, rebased on stored sequence %d\n", id, stored.sequence);
+				return true;
 			} finally {
-				wLock.unlock();
+				loadLock.unlock();
+			}
+		}
+		
+		@Override
+		protected boolean retire() {
+			if (dirty.get() || !isPersisted() || !pins.compareAndSet(0, RETIRED)) {
+				return false;
+			}
+			if (dirty.get() || !isPersisted()) {
+				pins.set(0);
+				return false;
+			}
+			return true;
+		}
+		
+		private boolean pin() {
+			while (true) {
+				int current = pins.get();
+				if (current == RETIRED) {
+					return false;
+				}
+				if (pins.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+		
+		private void unpin() {
+			pins.decrementAndGet();
+		}
+		
+		public boolean isPersisted() {
+			return persistedSequence.get() >= sequence.get();
+		}
+		
+		private void persisted(long seq) {
+			long current = persistedSequence.get();
+			while (current < seq && !persistedSequence.compareAndSet(current, seq)) {
+				current = persistedSequence.get();
 			}
 		}
+		
+		@Override
+		public String toString() {
+			return "account " + id;
+		}
 	}
 	
-	public static class Db {
-		private final String url;
-		private final String user;
-		private final String password;
+	public static class Db implements Storage {
+		public static final int DEFAULT_POOL_SIZE = 8;
+		public static final long DEFAULT_POOL_TIMEOUT = 5000;
+		
+		private final ConnectionPool pool;
 		
 		private static final String tableName = "account_service_table";
 		
 		private static final String selectUserTablesSql = "SELECT table_name FROM user_tables";
-		private static final String createTableSql = String.format("CREATE TABLE %s (id integer, value integer)", tableName);
+		private static final String primaryKeyName = "account_service_pk";
+		
+		private static final String createTableSql = String.format("CREATE TABLE %s (id NUMBER(10) CONSTRAINT %s PRIMARY KEY, "
+				+ "value NUMBER(19) NOT NULL, seq NUMBER(19) DEFAULT 0 NOT NULL)", tableName, primaryKeyName);
+		private static final String selectValueColumnsSql = "SELECT column_name, data_precision, nullable FROM user_tab_columns "
+				+ "WHERE table_name=? AND column_name IN ('VALUE', 'VALUE_NEW')";
+		private static final String selectSequenceColumnSql = "SELECT COUNT(*) FROM user_tab_columns WHERE table_name=? AND column_name='SEQ'";
+		private static final String selectPrimaryKeySql = "SELECT COUNT(*) FROM user_constraints WHERE table_name=? AND constraint_type='P'";
+		private static final String addNewValueColumnSql = String.format("ALTER TABLE %s ADD (value_new NUMBER(19))", tableName);
+		private static final String[] copyValueColumnSql = {
+			String.format("UPDATE %s SET value_new = NVL(value, 0)", tableName),
+			String.format("ALTER TABLE %s DROP COLUMN value", tableName),
+		};
+		private static final String renameNewValueColumnSql = String.format("ALTER TABLE %s RENAME COLUMN value_new TO value", tableName);
+		private static final String valueNotNullSql = String.format("ALTER TABLE %s MODIFY (value NOT NULL)", tableName);
+		private static final String[] migrateSequenceColumnSql = {
+			String.format("ALTER TABLE %s ADD (seq NUMBER(19) DEFAULT 0 NOT NULL)", tableName),
+		};
+		private static final String[] migratePrimaryKeySql = {
+			// duplicates come from racing inserts, the row with the greatest sequence holds the latest balance
+			String.format("DELETE FROM %1$s WHERE rowid IN (SELECT rid FROM (SELECT rowid rid, "
+					+ "ROW_NUMBER() OVER (PARTITION BY id ORDER BY seq DESC, rowid DESC) rn FROM %1$s) WHERE rn > 1)", tableName),
+			String.format("ALTER TABLE %s ADD CONSTRAINT %s PRIMARY KEY (id)", tableName, primaryKeyName),
+		};
 		private static final String truncateSql = "TRUNCATE TABLE " + tableName;
 		private static final String insertIdValueSql = String.format("INSERT INTO %s (id, value) VALUES (?,?)", tableName);
 		private static final String updateValueIdSql = String.format("UPDATE %s SET value=? WHERE id=?", tableName);
-		private static final String selectValueSql = String.format("SELECT value FROM %s WHERE id=?", tableName);
+		private static final String selectValueSql = String.format("SELECT value, seq FROM %s WHERE id=?", tableName);
+		private static final String selectIdRangeSql = String.format("SELECT MIN(id), MAX(id) FROM %s WHERE id BETWEEN ? AND ?", tableName);
+		private static final int READ_BATCH_SIZE = 100;
+		private static final String selectBatchSql = String.format("SELECT id, value, seq FROM %s WHERE id IN (?%s)",
+				tableName, new String(new char[READ_BATCH_SIZE - 1]).replace("\0", ",?"));
+		private static final String selectRangeSql = String.format("SELECT id, value, seq FROM %s WHERE id BETWEEN ? AND ?", tableName);
+		private static final String mergeIdValueSql = String.format("MERGE INTO %s t USING (SELECT ? id, ? value, ? seq FROM dual) s ON (t.id = s.id) "
+				+ "WHEN MATCHED THEN UPDATE SET t.value = s.value, t.seq = s.seq WHERE t.seq < s.seq "
+				+ "WHEN NOT MATCHED THEN INSERT (id, value, seq) VALUES (s.id, s.value, s.seq)", tableName);
+		
+		private static final int UNIQUE_CONSTRAINT_VIOLATED = 1;
+		
+		private final LatencyHistogram readLatency = new LatencyHistogram();
+		private final LatencyHistogram writeLatency = new LatencyHistogram();
+		private final AtomicLong statementCount = new AtomicLong(0);
 		
 		public Db(String url, String user, String password) throws SQLException {
-			this.url = url;
-			this.user = user;
-			this.password = password;
+			this(url, user, password, DEFAULT_POOL_SIZE, DEFAULT_POOL_TIMEOUT);
+		}
+		
+		public Db(String url, String user, String password, int poolSize, long poolTimeout) throws SQLException {
+			pool = new ConnectionPool(url, user, password, poolSize, poolTimeout);
 			initDb();
 		}
 		
 		public void clear() throws SQLException {
-			Connection connection = getConnection();
+			PooledConnection connection = pool.acquire();
 			try {
 				PreparedStatement query = connection.prepareStatement(truncateSql);
+				statementCount.incrementAndGet();
 				query.executeUpdate();
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
 			} finally {
 				connection.close();
 			}
 		}
 		
 		public int insert(int id, long value) throws SQLException {
-			Connection connection = getConnection();
+			long start = System.nanoTime();
+			PooledConnection connection = pool.acquire();
 			try {
 				PreparedStatement query = connection.prepareStatement(insertIdValueSql);
 				query.setInt(1, id);
-				query.setString(2, String.valueOf(value));
+				query.setLong(2, value);
+				statementCount.incrementAndGet();
 				return query.executeUpdate();
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
 			} finally {
 				connection.close();
+				writeLatency.recordSince(start);
 			}
 		}
 		
 		public int update(int id, long value) throws SQLException {
-			Connection connection = getConnection();
+			long start = System.nanoTime();
+			PooledConnection connection = pool.acquire();
 			try {
 				PreparedStatement query = connection.prepareStatement(updateValueIdSql);
-				query.setString(1, String.valueOf(value));
+				query.setLong(1, value);
 				query.setInt(2, id);
+				statementCount.incrementAndGet();
 				return query.executeUpdate();
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
+			} finally {
+				connection.close();
+				writeLatency.recordSince(start);
+			}
+		}
+		
+		/**
+		 * Updates value or inserts new record with a single MERGE statement.
+		 * Stored record is updated only if its sequence is less than the given one.
+		 *
+		 * @return 1 if record was written, 0 if stored record is newer
+		 */
+		public int upsert(int id, long value, long sequence) throws SQLException {
+			try {
+				return merge(id, value, sequence);
+			} catch (SQLException e) {
+				if (e.getErrorCode() != UNIQUE_CONSTRAINT_VIOLATED) {
+					throw e;
+				}
+				// concurrent merge inserted the same id, now it is matched
+				return merge(id, value, sequence);
+			}
+		}
+		
+		/**
+		 * Upserts first count records in a single JDBC batch of MERGE statements, see upsert().
+		 */
+		public void upsertBatch(int[] ids, long[] values, long[] sequences, int count) throws SQLException {
+			if (count == 0) {
+				return;
+			}
+			
+			long start = System.nanoTime();
+			PooledConnection connection = pool.acquire();
+			try {
+				PreparedStatement query = connection.prepareStatement(mergeIdValueSql);
+				for (int i = 0; i < count; ++i) {
+					query.setInt(1, ids[i]);
+					query.setLong(2, values[i]);
+					query.setLong(3, sequences[i]);
+					query.addBatch();
+				}
+				statementCount.incrementAndGet();
+				query.executeBatch();
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
 			} finally {
 				connection.close();
+				writeLatency.recordSince(start);
 			}
 		}
 		
 		public long read(int key) throws SQLException {
-			Connection connection = getConnection();
+			return readRecord(key).value;
+		}
+		
+		public Record readRecord(int key) throws SQLException {
+			long start = System.nanoTime();
+			PooledConnection connection = pool.acquire();
 			try {
 				PreparedStatement query = connection.prepareStatement(selectValueSql);
 				query.setInt(1, key);
+				statementCount.incrementAndGet();
+				ResultSet result = query.executeQuery();
+				try {
+					if (result.next()) {
+						return new Record(result.getLong(1), result.getLong(2));
+					}
+					return new Record(0, 0);
+				} finally {
+					result.close();
+				}
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
+			} finally {
+				connection.close();
+				readLatency.recordSince(start);
+			}
+		}
+		
+		/**
+		 * Streams records with ids in range [fromId, toId] to the handler.
+		 *
+		 * @param fetchSize number of rows transferred in one round trip
+		 */
+		public void scan(int fromId, int toId, int fetchSize, RecordHandler handler) throws SQLException {
+			PooledConnection connection = pool.acquire();
+			try {
+				PreparedStatement query = connection.prepareStatement(selectRangeSql);
+				query.setInt(1, fromId);
+				query.setInt(2, toId);
+				query.setFetchSize(fetchSize);
+				statementCount.incrementAndGet();
+				ResultSet result = query.executeQuery();
+				try {
+					while (result.next()) {
+						if (!handler.record(result.getInt(1), result.getLong(2), result.getLong(3))) {
+							break;
+						}
+					}
+				} finally {
+					result.close();
+				}
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
+			} finally {
+				connection.close();
+			}
+		}
+		
+		/**
+		 * Streams stored records for the first count ids to the handler, absent ids are skipped.
+		 * Ids are read in chunks of READ_BATCH_SIZE with a single statement per chunk.
+		 */
+		public void readRecords(int[] ids, int count, RecordHandler handler) throws SQLException {
+			long start = System.nanoTime();
+			PooledConnection connection = pool.acquire();
+			try {
+				PreparedStatement query = connection.prepareStatement(selectBatchSql);
+				for (int chunk = 0; chunk < count; chunk += READ_BATCH_SIZE) {
+					for (int i = 0; i < READ_BATCH_SIZE; ++i) {
+						// the last id is repeated to fill the whole chunk
+						query.setInt(i + 1, ids[Math.min(chunk + i, count - 1)]);
+					}
+					statementCount.incrementAndGet();
+					ResultSet result = query.executeQuery();
+					try {
+						while (result.next()) {
+							handler.record(result.getInt(1), result.getLong(2), result.getLong(3));
+						}
+					} finally {
+						result.close();
+					}
+				}
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
+			} finally {
+				connection.close();
+				readLatency.recordSince(start);
+			}
+		}
+		
+		/**
+		 * Finds minimal and maximal stored ids in range [fromId, toId].
+		 *
+		 * @return array of minimal and maximal id or null if there are no records in range
+		 */
+		public int[] idRange(int fromId, int toId) throws SQLException {
+			PooledConnection connection = pool.acquire();
+			try {
+				PreparedStatement query = connection.prepareStatement(selectIdRangeSql);
+				query.setInt(1, fromId);
+				query.setInt(2, toId);
+				statementCount.incrementAndGet();
 				ResultSet result = query.executeQuery();
-				if (result.next()) {
-					return result.getLong(1);
+				try {
+					result.next();
+					int min = result.getInt(1);
+					if (result.wasNull()) {
+						return null;
+					}
+					return new int[] {min, result.getInt(2)};
+				} finally {
+					result.close();
 				}
-				return 0;
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
+			} finally {
+				connection.close();
+			}
+		}
+		
+		/**
+		 * Number of statements and statement batches sent to database.
+		 */
+		public long getStatementCount() {
+			return statementCount.get();
+		}
+		
+		public ConnectionPool getPool() {
+			return pool;
+		}
+		
+		/**
+		 * Latencies of single and batched record reads including wait for connection.
+		 */
+		public LatencyHistogram getReadLatency() {
+			return readLatency;
+		}
+		
+		/**
+		 * Latencies of inserts, updates, upserts and upsert batches including wait for connection.
+		 */
+		public LatencyHistogram getWriteLatency() {
+			return writeLatency;
+		}
+		
+		public void close() {
+			pool.close();
+		}
+		
+		private int merge(int id, long value, long sequence) throws SQLException {
+			long start = System.nanoTime();
+			PooledConnection connection = pool.acquire();
+			try {
+				PreparedStatement query = connection.prepareStatement(mergeIdValueSql);
+				query.setInt(1, id);
+				query.setLong(2, value);
+				query.setLong(3, sequence);
+				statementCount.incrementAndGet();
+				return query.executeUpdate();
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
 			} finally {
 				connection.close();
+				writeLatency.recordSince(start);
 			}
 		}
 		
 		private void initDb() throws SQLException {
-			Connection connection = getConnection();
+			PooledConnection connection = pool.acquire();
 			try {
-				PreparedStatement query = connection.prepareStatement(selectUserTablesSql);
+				PreparedStatement query = connection.getConnection().prepareStatement(selectUserTablesSql);
 				ResultSet records = query.executeQuery();
 				boolean tableFound = false;
 				while (records.next()) {
@@ -273,17 +1972,109 @@ public class AccountService implements RemoteAccountService {
 				query.close();
 				
 				if (!tableFound) {
-					query = connection.prepareStatement(createTableSql);
+					query = connection.getConnection().prepareStatement(createTableSql);
 					query.execute();
+					query.close();
 					System.out.println("User table " + tableName + " created");
+				} else {
+					migrateTable(connection);
 				}
+			} catch (SQLException e) {
+				connection.invalidate(e);
+				throw e;
 			} finally {
 				connection.close();
 			}
 		}
 		
-		private Connection getConnection() throws SQLException {
-			return DriverManager.getConnection(url, user, password);
+		/**
+		 * Brings table created by previous versions, (id integer, value integer) without primary key
+		 * and sequence column, to the current layout keeping stored values.
+		 * Each step is chosen by the current table layout, so migration interrupted by a crash resumes on the next start.
+		 */
+		private void migrateTable(PooledConnection connection) throws SQLException {
+			String dictionaryName = tableName.toUpperCase();
+			
+			PreparedStatement query = connection.getConnection().prepareStatement(selectValueColumnsSql);
+			query.setString(1, dictionaryName);
+			ResultSet result = query.executeQuery();
+			boolean valueFound = false;
+			boolean valueWide = false;
+			boolean valueNullable = false;
+			boolean newValueFound = false;
+			while (result.next()) {
+				if ("VALUE".equals(result.getString(1))) {
+					valueFound = true;
+					valueWide = result.getInt(2) == 19;
+					valueNullable = "Y".equals(result.getString(3));
+				} else {
+					newValueFound = true;
+				}
+			}
+			query.close();
+			
+			query = connection.getConnection().prepareStatement(selectPrimaryKeySql);
+			query.setString(1, dictionaryName);
+			result = query.executeQuery();
+			boolean keyMigrated = result.next() && result.getInt(1) > 0;
+			query.close();
+			
+			query = connection.getConnection().prepareStatement(selectSequenceColumnSql);
+			query.setString(1, dictionaryName);
+			result = query.executeQuery();
+			boolean sequenceMigrated = result.next() && result.getInt(1) > 0;
+			query.close();
+			
+			if (!valueFound || !valueWide || valueNullable || newValueFound) {
+				migrateValueColumn(connection, valueFound && !valueWide, newValueFound, valueNullable);
+				System.out.println("User table " + tableName + " value column migrated to NUMBER(19)");
+			}
+			// sequence goes first, duplicates are resolved by it
+			if (!sequenceMigrated) {
+				executeAll(connection, migrateSequenceColumnSql);
+				System.out.println("User table " + tableName + " sequence column added");
+			}
+			if (!keyMigrated) {
+				executeAll(connection, migratePrimaryKeySql);
+				System.out.println("User table " + tableName + " duplicate ids removed, primary key created");
+			}
+		}
+		
+		/**
+		 * Replaces narrow value column with NUMBER(19) one through value_new column,
+		 * starting from the step the previous attempt stopped at.
+		 *
+		 * @param oldValueFound narrow value column is still present
+		 * @param newValueFound value_new column was added by interrupted migration
+		 * @param valueNullable value column is already NUMBER(19) but NOT NULL constraint is missing
+		 */
+		private void migrateValueColumn(PooledConnection connection, boolean oldValueFound, boolean newValueFound,
+				boolean valueNullable) throws SQLException {
+			if (oldValueFound) {
+				if (!newValueFound) {
+					executeAll(connection, new String[] {addNewValueColumnSql});
+				}
+				executeAll(connection, copyValueColumnSql);
+				newValueFound = true;
+			}
+			if (newValueFound) {
+				executeAll(connection, new String[] {renameNewValueColumnSql, valueNotNullSql});
+			} else if (valueNullable) {
+				executeAll(connection, new String[] {valueNotNullSql});
+			} else {
+				throw new SQLException("User table " + tableName + " has no value column");
+			}
+		}
+		
+		private void executeAll(PooledConnection connection, String[] statements) throws SQLException {
+			for (String sql: statements) {
+				PreparedStatement query = connection.getConnection().prepareStatement(sql);
+				try {
+					query.execute();
+				} finally {
+					query.close();
+				}
+			}
 		}
 	}
 
@@ -294,13 +2085,128 @@ public class AccountService implements RemoteAccountService {
 		
 		private long prevTime = System.currentTimeMillis();
 		
-		private int prevReadRequests = 0;
-		private int prevWriteRequests = 0;
-
-		private int readRequests;
-		private int writeRequests;
-		private int readersPerSecond;
-		private int writersPerSecond;
+		private long prevReadRequests = 0;
+		private long prevWriteRequests = 0;
+		private long readersPerSecond;
+		private long writersPerSecond;
+		
+		private long prevAcquireCount = 0;
+		private long prevWaitTimeNanos = 0;
+		
+		private long prevCacheHits = 0;
+		private long prevCacheMisses = 0;
+		
+		/**
+		 * Ring buffer of per-second samples, head points to the oldest one.
+		 */
+		private final StatSnapshot[] history = new StatSnapshot[Math.max(1, statHistoryMinutes * 60)];
+		private int historyHead = 0;
+		private int historySize = 0;
+		private StatSnapshot last = new StatSnapshot(prevTime, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+		
+		private final String[] latencyNames = {"getAmount", "addAmount", "getAmounts", "addAmounts", "db read", "db write", "journal"};
+		private final LatencyHistogram[] latencies = {getAmountLatency, addAmountLatency, getAmountsLatency, addAmountsLatency,
+				storage.getReadLatency(), storage.getWriteLatency(), journalSyncLatency};
+		private final LatencyHistogram.Snapshot[] prevLatencies = new LatencyHistogram.Snapshot[latencies.length];
+		private String latencyReport = "";
+		
+		private long hotWindowStart = prevTime;
+		private List<HotAccount> hotReadAccounts = new ArrayList<HotAccount>();
+		private List<HotAccount> hotWriteAccounts = new ArrayList<HotAccount>();
+		
+		private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+		private final ExecutorService publisher = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "stat-publisher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		/**
+		 * Listener with the statistics it has already received, so only changes are pushed to it.
+		 * At most one push is in progress, a slow listener skips collections and gets their changes combined.
+		 */
+		private class Subscriber implements Runnable {
+			private final RemoteStatListener listener;
+			private final AtomicBoolean sending = new AtomicBoolean(false);
+			
+			// accessed by the push in progress only
+			private StatSnapshot sent;
+			private List<HotAccount> sentHotReads;
+			private List<HotAccount> sentHotWrites;
+			
+			Subscriber(RemoteStatListener listener) {
+				this.listener = listener;
+			}
+			
+			void publish() {
+				if (sending.compareAndSet(false, true)) {
+					try {
+						publisher.execute(this);
+					} catch (RuntimeException e) {
+						sending.set(false);
+					}
+				}
+			}
+			
+			@Override
+			public void run() {
+				try {
+					StatSnapshot snapshot;
+					List<HotAccount> reads;
+					List<HotAccount> writes;
+					rLock.lock();
+					try {
+						snapshot = last;
+						reads = hotReadAccounts;
+						writes = hotWriteAccounts;
+					} finally {
+						rLock.unlock();
+					}
+					if (sent != null && sent.timestamp == snapshot.timestamp) {
+						return;
+					}
+					
+					// hot account lists are replaced as a whole, so identity tells if they changed
+					listener.update(StatDelta.between(sent, snapshot,
+							reads != sentHotReads ? reads : null, writes != sentHotWrites ? writes : null));
+					sent = snapshot;
+					sentHotReads = reads;
+					sentHotWrites = writes;
+				} catch (RemoteException e) {
+					subscribers.remove(this);
+				} finally {
+					sending.set(false);
+				}
+			}
+		}
+		
+		Stat() {
+			for (int i = 0; i < latencies.length; ++i) {
+				prevLatencies[i] = latencies[i].snapshot();
+			}
+		}
+		
+		public void subscribe(RemoteStatListener listener) {
+			Subscriber subscriber = new Subscriber(listener);
+			subscribers.add(subscriber);
+			subscriber.publish();
+		}
+		
+		public void unsubscribe(RemoteStatListener listener) {
+			for (Subscriber subscriber: subscribers) {
+				if (subscriber.listener.equals(listener)) {
+					subscribers.remove(subscriber);
+				}
+			}
+		}
+		
+		void close() {
+			subscribers.clear();
+			publisher.shutdownNow();
+		}
 		
 		public void reset() {
 			writerRequestsCounter.set(0);
@@ -310,6 +2216,10 @@ public class AccountService implements RemoteAccountService {
 			try {
 				prevReadRequests = 0;
 				prevWriteRequests = 0;
+				for (int i = 0; i < latencies.length; ++i) {
+					latencies[i].reset();
+					prevLatencies[i] = latencies[i].snapshot();
+				}
 			}finally {
 				wLock.unlock();
 			}
@@ -318,8 +2228,59 @@ public class AccountService implements RemoteAccountService {
 		public String stat() {
 			rLock.lock();
 			try {
-				return String.format("readers per second:%d, writers per second:%d, total read requests:%d, total write requests:%d",
-						readersPerSecond, writersPerSecond, readRequests, writeRequests);
+				return last.toString();
+			} finally {
+				rLock.unlock();
+			}
+		}
+		
+		public StatSnapshot snapshot() {
+			rLock.lock();
+			try {
+				return last;
+			} finally {
+				rLock.unlock();
+			}
+		}
+		
+		public List<StatSnapshot> statSince(long timestamp) {
+			rLock.lock();
+			try {
+				List<StatSnapshot> samples = new ArrayList<StatSnapshot>();
+				for (int i = 0; i < historySize; ++i) {
+					StatSnapshot sample = history[(historyHead + i) % history.length];
+					if (sample.timestamp > timestamp) {
+						samples.add(sample);
+					}
+				}
+				return samples;
+			} finally {
+				rLock.unlock();
+			}
+		}
+		
+		public List<HotAccount> hotReads() {
+			rLock.lock();
+			try {
+				return hotReadAccounts;
+			} finally {
+				rLock.unlock();
+			}
+		}
+		
+		public List<HotAccount> hotWrites() {
+			rLock.lock();
+			try {
+				return hotWriteAccounts;
+			} finally {
+				rLock.unlock();
+			}
+		}
+		
+		public String latency() {
+			rLock.lock();
+			try {
+				return latencyReport;
 			} finally {
 				rLock.unlock();
 			}
@@ -328,11 +2289,11 @@ public class AccountService implements RemoteAccountService {
 		public void collectData() {
 			wLock.lock();
 			try {
-				readRequests = readerRequestsCounter.get();
-				writeRequests = writerRequestsCounter.get();
+				long readRequests = readerRequestsCounter.get();
+				long writeRequests = writerRequestsCounter.get();
 				
-				int readRequestsDelta = readRequests - prevReadRequests;
-				int writeRequestsDelta = writeRequests - prevWriteRequests;
+				long readRequestsDelta = readRequests - prevReadRequests;
+				long writeRequestsDelta = writeRequests - prevWriteRequests;
 				
 				prevReadRequests = readRequests;
 				prevWriteRequests = writeRequests;
@@ -342,12 +2303,80 @@ public class AccountService implements RemoteAccountService {
 				prevTime = nowTime;
 				
 				if (timeDeltaSeconds > 0.5) {
-					readersPerSecond = Math.round(readRequestsDelta/timeDeltaSeconds);
-					writersPerSecond = Math.round(writeRequestsDelta/timeDeltaSeconds);
+					readersPerSecond = Math.round(readRequestsDelta/(double) timeDeltaSeconds);
+					writersPerSecond = Math.round(writeRequestsDelta/(double) timeDeltaSeconds);
+				}
+				
+				ConnectionPool pool = storage.getPool();
+				int poolActive = 0;
+				int poolIdle = 0;
+				double poolWaitMillis = 0;
+				if (pool != null) {
+					long acquireCount = pool.getAcquireCount();
+					long waitTimeNanos = pool.getWaitTimeNanos();
+					long acquireDelta = acquireCount - prevAcquireCount;
+					poolActive = pool.getActive();
+					poolIdle = pool.getIdle();
+					poolWaitMillis = acquireDelta > 0 ? (waitTimeNanos - prevWaitTimeNanos)/1e6/acquireDelta : 0;
+					
+					prevAcquireCount = acquireCount;
+					prevWaitTimeNanos = waitTimeNanos;
+				}
+				
+				long cacheHits = 0;
+				long cacheMisses = 0;
+				long cacheEvictions = 0;
+				if (cachingHandlers != null) {
+					cacheHits = cachingHandlers.getHitCount();
+					cacheMisses = cachingHandlers.getMissCount();
+					cacheEvictions = cachingHandlers.getEvictionCount();
+				}
+				
+				long lookupsDelta = (cacheHits - prevCacheHits) + (cacheMisses - prevCacheMisses);
+				int cacheHitRatio = lookupsDelta > 0 ? (int) (100 * (cacheHits - prevCacheHits) / lookupsDelta) : 0;
+				
+				prevCacheHits = cacheHits;
+				prevCacheMisses = cacheMisses;
+				
+				StringBuilder report = new StringBuilder();
+				LatencyHistogram.Snapshot[] intervals = new LatencyHistogram.Snapshot[latencies.length];
+				for (int i = 0; i < latencies.length; ++i) {
+					LatencyHistogram.Snapshot cumulative = latencies[i].snapshot();
+					intervals[i] = cumulative.minus(prevLatencies[i]);
+					prevLatencies[i] = cumulative;
+					report.append(String.format("%-10s interval: %s%n%-10s total:    %s%n", latencyNames[i], intervals[i], "", cumulative));
+				}
+				latencyReport = report.toString();
+				// single and batch calls of the same kind are merged
+				LatencyHistogram.Snapshot reads = intervals[0].plus(intervals[2]);
+				LatencyHistogram.Snapshot writes = intervals[1].plus(intervals[3]);
+				
+				last = new StatSnapshot(nowTime, readersPerSecond, writersPerSecond, readRequests, writeRequests,
+						poolActive, poolIdle, poolWaitMillis,
+						accounts.dirtyCount(), accounts.size(), cacheHits, cacheMisses, cacheEvictions, cacheHitRatio,
+						reads.getValueAtPercentile(50), reads.getValueAtPercentile(99), reads.getValueAtPercentile(99.9), reads.getMax(),
+						writes.getValueAtPercentile(50), writes.getValueAtPercentile(99), writes.getValueAtPercentile(99.9), writes.getMax());
+				if (historySize < history.length) {
+					history[(historyHead + historySize++) % history.length] = last;
+				} else {
+					history[historyHead] = last;
+					historyHead = (historyHead + 1) % history.length;
+				}
+
+				
+				if (hotReads != null && nowTime - hotWindowStart >= HOT_ACCOUNTS_WINDOW) {
+					double windowSeconds = (nowTime - hotWindowStart)/1000.0;
+					hotReadAccounts = hotReads.takeTop(HOT_ACCOUNTS_REPORTED, windowSeconds);
+					hotWriteAccounts = hotWrites.takeTop(HOT_ACCOUNTS_REPORTED, windowSeconds);
+					hotWindowStart = nowTime;
 				}
 			}finally {
 				wLock.unlock();
 			}
+			
+			for (Subscriber subscriber: subscribers) {
+				subscriber.publish();
+			}
 		}
 	}
 }
@@ -0,0 +1,216 @@
+package bool.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+/**
+ * Point-in-time copy of account states in a file, read through memory mapping.
+ * File holds magic, record count, high-water mark and CRC32 of the records followed by records sorted by id,
+ * high-water mark is the time the snapshot was started at, so changes made before it are included.
+ * Records can be invalidated once the account state is known to be replaced, snapshot itself is never changed.
+ */
+public class AccountSnapshot {
+	private static final int MAGIC = 0x41535331;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+	private static final int RECORD_SIZE = 4 + 8 + 8;
+	private static final int WRITE_BUFFER_RECORDS = 4096;
+
+	/**
+	 * Collects account states passed as records and writes them as a snapshot.
+	 */
+	public static class Builder implements Storage.RecordHandler {
+		private final long highWaterMark;
+		private int[] ids = new int[1024];
+		private long[] values = new long[1024];
+		private long[] sequences = new long[1024];
+		private int count = 0;
+
+		public Builder(long highWaterMark) {
+			this.highWaterMark = highWaterMark;
+		}
+
+		@Override
+		public boolean record(int id, long value, long sequence) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+				sequences = Arrays.copyOf(sequences, count * 2);
+			}
+			ids[count] = id;
+			values[count] = value;
+			sequences[count] = sequence;
+			++count;
+			return true;
+		}
+
+		/**
+		 * Writes snapshot to a temporary file and moves it over the file, so the file is either old or new snapshot.
+		 *
+		 * @return number of written records
+		 */
+		public int write(File file) throws IOException {
+			// id in high bits, index in low bits: sorting the keys sorts records by id
+			long[] order = new long[count];
+			for (int i = 0; i < count; ++i) {
+				order[i] = ((long) ids[i] << 32) | i;
+			}
+			Arrays.sort(order);
+
+			File temp = new File(file.getPath() + ".tmp");
+			FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE);
+			try {
+				CRC32 checksum = new CRC32();
+				ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * WRITE_BUFFER_RECORDS);
+				long position = HEADER_SIZE;
+				for (int i = 0; i < count; ++i) {
+					int index = (int) order[i];
+					buffer.putInt(ids[index]).putLong(values[index]).putLong(sequences[index]);
+					if (!buffer.hasRemaining() || i == count - 1) {
+						buffer.flip();
+						checksum.update(buffer.duplicate());
+						position += writeFully(channel, buffer, position);
+						buffer.clear();
+					}
+				}
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(count).putLong(highWaterMark).putLong(checksum.getValue()).flip();
+				writeFully(channel, header, 0);
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return count;
+		}
+	}
+
+	private final MappedByteBuffer records;
+	private final int size;
+	private final long highWaterMark;
+	private final AtomicLongArray invalidated;
+
+	private AccountSnapshot(MappedByteBuffer records, int size, long highWaterMark) {
+		this.records = records;
+		this.size = size;
+		this.highWaterMark = highWaterMark;
+		this.invalidated = new AtomicLongArray((size + 63) / 64);
+	}
+
+	/**
+	 * Maps the snapshot file and verifies its checksum.
+	 *
+	 * @throws IOException if the file is not a complete snapshot
+	 */
+	public static AccountSnapshot open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is not an account snapshot");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int size = mapped.getInt(4);
+			if (mapped.getInt(0) != MAGIC || size < 0 || channel.size() != HEADER_SIZE + (long) size * RECORD_SIZE) {
+				throw new IOException(file + " is not an account snapshot");
+			}
+
+			ByteBuffer body = mapped.duplicate();
+			body.position(HEADER_SIZE);
+			CRC32 checksum = new CRC32();
+			checksum.update(body);
+			if (checksum.getValue() != mapped.getLong(16)) {
+				throw new IOException("Account snapshot " + file + " checksum mismatch");
+			}
+			return new AccountSnapshot(mapped, size, mapped.getLong(8));
+		} finally {
+			// mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	public int getId(int index) {
+		return records.getInt(HEADER_SIZE + index * RECORD_SIZE);
+	}
+
+	public long getValue(int index) {
+		return records.getLong(HEADER_SIZE + index * RECORD_SIZE + 4);
+	}
+
+	public long getSequence(int index) {
+		return records.getLong(HEADER_SIZE + index * RECORD_SIZE + 12);
+	}
+
+	/**
+	 * @return index of the account record or negative value if there is no such record
+	 */
+	public int indexOf(int id) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleId = getId(middle);
+			if (middleId < id) {
+				low = middle + 1;
+			} else if (middleId > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * @return index of valid account record or negative value if there is no such record or it is invalidated
+	 */
+	public int indexOfValid(int id) {
+		int index = indexOf(id);
+		return index >= 0 && isValid(index) ? index : -1;
+	}
+
+	public boolean isValid(int index) {
+		return (invalidated.get(index >>> 6) & (1L << index)) == 0;
+	}
+
+	public void invalidate(int id) {
+		int index = indexOf(id);
+		if (index >= 0) {
+			invalidateAt(index);
+		}
+	}
+
+	public void invalidateAt(int index) {
+		long bit = 1L << index;
+		int word = index >>> 6;
+		long current = invalidated.get(word);
+		while ((current & bit) == 0 && !invalidated.compareAndSet(word, current, current | bit)) {
+			current = invalidated.get(word);
+		}
+	}
+
+	private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, position + written);
+		}
+		return written;
+	}
+}
@@ -0,0 +1,282 @@
+package bool.server;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Open-addressing id to balance table on primitive arrays.
+ * Table is split into lock striped segments, reads are lock-free, changes take the segment lock.
+ * Each slot costs 25 bytes: state, id, balance, sequence and dirty flag.
+ */
+public class CompactAccountTable {
+	private static final int FREE = 0;
+	private static final int USED = 1;
+
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int MIN_SEGMENT_CAPACITY = 16;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	/**
+	 * @param expectedSize number of accounts table is initially sized for
+	 * @param concurrency number of lock stripes, rounded up to a power of two
+	 */
+	public CompactAccountTable(int expectedSize, int concurrency) {
+		int segmentsCount = powerOfTwo(Math.max(1, concurrency));
+		int segmentCapacity = powerOfTwo(Math.max(MIN_SEGMENT_CAPACITY, (int) (expectedSize / LOAD_FACTOR / segmentsCount) + 1));
+
+		segments = new Segment[segmentsCount];
+		for (int i = 0; i < segmentsCount; ++i) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+		segmentMask = segmentsCount - 1;
+	}
+
+	public boolean contains(int id) {
+		int hash = hash(id);
+		Slab slab = segmentFor(hash).slab;
+		return slab.indexOf(id, hash) >= 0;
+	}
+
+	/**
+	 * @return account balance or zero if there is no such account
+	 */
+	public long get(int id) {
+		int hash = hash(id);
+		Slab slab = segmentFor(hash).slab;
+		int index = slab.indexOf(id, hash);
+		return index >= 0 ? slab.values.get(index) : 0;
+	}
+
+	/**
+	 * Adds account unless it is already in the table.
+	 *
+	 * @return true if account was added
+	 */
+	public boolean putIfAbsent(int id, long value, long sequence) {
+		int hash = hash(id);
+		Segment segment = segmentFor(hash);
+		segment.lock.lock();
+		try {
+			if (segment.slab.indexOf(id, hash) >= 0) {
+				return false;
+			}
+			segment.insert(id, hash, value, sequence);
+			return true;
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds value to the account balance and assigns the next sequence number to the change.
+	 * Balance read after this call includes all changes up to the returned sequence.
+	 *
+	 * @return sequence number of the change or -1 if there is no such account
+	 */
+	public long add(int id, long value) {
+		int hash = hash(id);
+		Segment segment = segmentFor(hash);
+		segment.lock.lock();
+		try {
+			Slab slab = segment.slab;
+			int index = slab.indexOf(id, hash);
+			if (index < 0) {
+				return -1;
+			}
+			slab.values.set(index, slab.values.get(index) + value);
+			return ++slab.sequences[index];
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks account as changed since the last snapshot.
+	 *
+	 * @return true if account was not marked before
+	 */
+	public boolean markDirty(int id) {
+		int hash = hash(id);
+		Segment segment = segmentFor(hash);
+		segment.lock.lock();
+		try {
+			Slab slab = segment.slab;
+			int index = slab.indexOf(id, hash);
+			if (index < 0 || slab.dirty[index]) {
+				return false;
+			}
+			slab.dirty[index] = true;
+			return true;
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes consistent account state and clears its dirty mark.
+	 *
+	 * @param valueAndSequence receives balance at index 0 and sequence number at index 1
+	 * @return false if there is no such account
+	 */
+	public boolean snapshot(int id, long[] valueAndSequence) {
+		int hash = hash(id);
+		Segment segment = segmentFor(hash);
+		segment.lock.lock();
+		try {
+			Slab slab = segment.slab;
+			int index = slab.indexOf(id, hash);
+			if (index < 0) {
+				return false;
+			}
+			slab.dirty[index] = false;
+			valueAndSequence[0] = slab.values.get(index);
+			valueAndSequence[1] = slab.sequences[index];
+			return true;
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	/**
+	 * Passes every account to the handler until it returns false. Each segment is locked
+	 * while it is visited, so balance and sequence of an account are consistent.
+	 */
+	public void forEach(Storage.RecordHandler handler) {
+		for (Segment segment: segments) {
+			segment.lock.lock();
+			try {
+				Slab slab = segment.slab;
+				for (int i = 0; i < slab.states.length(); ++i) {
+					if (slab.states.get(i) != FREE && !handler.record(slab.ids[i], slab.values.get(i), slab.sequences[i])) {
+						return;
+					}
+				}
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment: segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Allocated slots count, each slot takes the same memory whether it is used or not.
+	 */
+	public long capacity() {
+		long capacity = 0;
+		for (Segment segment: segments) {
+			capacity += segment.slab.states.length();
+		}
+		return capacity;
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[(hash >>> 24) & segmentMask];
+	}
+
+	private static int hash(int id) {
+		// murmur3 finalizer spreads sequential ids over the table
+		int h = id;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int powerOfTwo(int value) {
+		int result = 1;
+		while (result < value) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	private static class Segment {
+		private final ReentrantLock lock = new ReentrantLock();
+		private volatile Slab slab;
+		private volatile int size;
+
+		Segment(int capacity) {
+			slab = new Slab(capacity);
+		}
+
+		/**
+		 * Called under segment lock for absent id.
+		 */
+		void insert(int id, int hash, long value, long sequence) {
+			if (size + 1 > slab.states.length() * LOAD_FACTOR) {
+				slab = slab.resize(slab.states.length() * 2);
+			}
+			slab.insert(id, hash, value, sequence, false);
+			++size;
+		}
+	}
+
+	/**
+	 * Fixed capacity arrays, slot state is published last so lock-free readers see complete slots.
+	 */
+	private static class Slab {
+		private final int[] ids;
+		private final AtomicIntegerArray states;
+		private final AtomicLongArray values;
+		private final long[] sequences;
+		private final boolean[] dirty;
+		private final int mask;
+
+		Slab(int capacity) {
+			ids = new int[capacity];
+			states = new AtomicIntegerArray(capacity);
+			values = new AtomicLongArray(capacity);
+			sequences = new long[capacity];
+			dirty = new boolean[capacity];
+			mask = capacity - 1;
+		}
+
+		int indexOf(int id, int hash) {
+			int index = hash & mask;
+			while (true) {
+				int state = states.get(index);
+				if (state == FREE) {
+					return -1;
+				}
+				if (ids[index] == id) {
+					return index;
+				}
+				index = (index + 1) & mask;
+			}
+		}
+
+		void insert(int id, int hash, long value, long sequence, boolean isDirty) {
+			int index = hash & mask;
+			while (states.get(index) != FREE) {
+				index = (index + 1) & mask;
+			}
+			ids[index] = id;
+			sequences[index] = sequence;
+			dirty[index] = isDirty;
+			values.set(index, value);
+			states.set(index, USED);
+		}
+
+		Slab resize(int capacity) {
+			Slab resized = new Slab(capacity);
+			for (int i = 0; i < states.length(); ++i) {
+				if (states.get(i) != FREE) {
+					resized.insert(ids[i], hash(ids[i]), values.get(i), sequences[i], dirty[i]);
+				}
+			}
+			return resized;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package bool.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections. Connections are opened lazily up to the pool size
+ * and reused in LIFO order, each one keeps its own prepared statements cache.
+ */
+public class ConnectionPool {
+	/**
+	 * Time in seconds to wait for a connection to answer after a statement failed.
+	 */
+	private static final int VALID_TIMEOUT = 1;
+
+	private final String url;
+	private final String user;
+	private final String password;
+
+	private final int size;
+	private final long acquireTimeout;
+
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+	private final AtomicInteger active = new AtomicInteger(0);
+	private final AtomicLong acquireCount = new AtomicLong(0);
+	private final AtomicLong waitTimeNanos = new AtomicLong(0);
+	private final AtomicLong timeoutCount = new AtomicLong(0);
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param size maximum number of simultaneously opened connections
+	 * @param acquireTimeout time in milliseconds to wait for a free connection before failing
+	 */
+	public ConnectionPool(String url, String user, String password, int size, long acquireTimeout) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pool size must be positive: " + size);
+		}
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.size = size;
+		this.acquireTimeout = acquireTimeout;
+		this.permits = new Semaphore(size, true);
+	}
+
+	/**
+	 * Takes idle connection from the pool or opens new one, blocks while pool is exhausted.
+	 * Returned connection must be closed to get back to the pool.
+	 */
+	public PooledConnection acquire() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+				timeoutCount.incrementAndGet();
+				throw new SQLException("No free connection in " + acquireTimeout + "ms, pool size: " + size);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for connection");
+		}
+		waitTimeNanos.addAndGet(System.nanoTime() - start);
+		acquireCount.incrementAndGet();
+
+		PooledConnection connection = idle.pollFirst();
+		if (connection == null) {
+			try {
+				connection = new PooledConnection(DriverManager.getConnection(url, user, password));
+			} catch (SQLException e) {
+				permits.release();
+				throw e;
+			}
+		}
+		active.incrementAndGet();
+		return connection;
+	}
+
+	/**
+	 * Closes all idle connections, connections in use are closed on release.
+	 */
+	public void close() {
+		closed = true;
+		PooledConnection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			connection.closePhysical();
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getActive() {
+		return active.get();
+	}
+
+	public int getIdle() {
+		return idle.size();
+	}
+
+	public long getAcquireCount() {
+		return acquireCount.get();
+	}
+
+	public long getWaitTimeNanos() {
+		return waitTimeNanos.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	private void release(PooledConnection connection) {
+		active.decrementAndGet();
+		if (closed || connection.broken) {
+			connection.closePhysical();
+		} else {
+			idle.offerFirst(connection);
+		}
+		permits.release();
+	}
+
+	/**
+	 * Connection handle owned by a single thread between acquire() and close().
+	 */
+	public class PooledConnection {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		private boolean broken = false;
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * Returns cached prepared statement for given sql, statement must not be closed by caller.
+		 */
+		public PreparedStatement prepareStatement(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+
+		public Connection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Marks connection as unusable after the error if it is a connection exception (SQLState class 08)
+		 * or the connection does not respond, it will be closed instead of returning to the pool.
+		 * Data errors like constraint violations keep the connection and its cached statements.
+		 */
+		public void invalidate(SQLException e) {
+			String state = e.getSQLState();
+			if (state != null && state.startsWith("08")) {
+				broken = true;
+				return;
+			}
+			try {
+				broken = !connection.isValid(VALID_TIMEOUT);
+			} catch (SQLException checkError) {
+				broken = true;
+			}
+		}
+
+		/**
+		 * Returns connection to the pool.
+		 */
+		public void close() {
+			release(this);
+		}
+
+		private void closePhysical() {
+			statements.clear();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package bool.server;
+
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits number of simultaneous calls to the storage. Callers wait in a fair queue without timeout,
+ * so a burst of virtual threads queues up in front of the database instead of failing
+ * on the connection pool acquire timeout.
+ */
+public class GatedStorage implements Storage {
+	private final Storage storage;
+	private final Semaphore gate;
+
+	/**
+	 * @param permits number of simultaneous calls, connection pool size for a pooled storage
+	 */
+	public GatedStorage(Storage storage, int permits) {
+		this.storage = storage;
+		this.gate = new Semaphore(permits, true);
+	}
+
+	@Override
+	public Record readRecord(int id) throws SQLException {
+		enter();
+		try {
+			return storage.readRecord(id);
+		} finally {
+			gate.release();
+		}
+	}
+
+	@Override
+	public void readRecords(int[] ids, int count, RecordHandler handler) throws SQLException {
+		enter();
+		try {
+			storage.readRecords(ids, count, handler);
+		} finally {
+			gate.release();
+		}
+	}
+
+	@Override
+	public int upsert(int id, long value, long sequence) throws SQLException {
+		enter();
+		try {
+			return storage.upsert(id, value, sequence);
+		} finally {
+			gate.release();
+		}
+	}
+
+	@Override
+	public void upsertBatch(int[] ids, long[] values, long[] sequences, int count) throws SQLException {
+		enter();
+		try {
+			storage.upsertBatch(ids, values, sequences, count);
+		} finally {
+			gate.release();
+		}
+	}
+
+	@Override
+	public void scan(int fromId, int toId, int fetchSize, RecordHandler handler) throws SQLException {
+		enter();
+		try {
+			storage.scan(fromId, toId, fetchSize, handler);
+		} finally {
+			gate.release();
+		}
+	}
+
+	@Override
+	public int[] idRange(int fromId, int toId) throws SQLException {
+		enter();
+		try {
+			return storage.idRange(fromId, toId);
+		} finally {
+			gate.release();
+		}
+	}
+
+	@Override
+	public ConnectionPool getPool() {
+		return storage.getPool();
+	}
+
+	@Override
+	public LatencyHistogram getReadLatency() {
+		return storage.getReadLatency();
+	}
+
+	@Override
+	public LatencyHistogram getWriteLatency() {
+		return storage.getWriteLatency();
+	}
+
+	@Override
+	public void close() {
+		storage.close();
+	}
+
+	/**
+	 * @return number of callers waiting for the gate
+	 */
+	public int getQueueLength() {
+		return gate.getQueueLength();
+	}
+
+	private void enter() throws SQLException {
+		try {
+			gate.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for storage");
+		}
+	}
+}
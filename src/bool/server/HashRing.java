@@ -0,0 +1,115 @@
+package bool.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of account ids over service nodes. Every node is placed on the ring at a number of
+ * points hashed from its name and owns ids hashing up to its points, so adding or removing a node moves
+ * only the ids it gains or loses and the other nodes keep their accounts.
+ * All nodes and clients must build the ring from the same node names.
+ */
+public class HashRing {
+	public static final int VIRTUAL_NODES = 128;
+
+	private final List<String> nodes;
+	private final long[] points;
+	private final int[] owners;
+
+	/**
+	 * @param nodes node names, usually host:port of their registries
+	 */
+	public HashRing(List<String> nodes) {
+		if (nodes.isEmpty()) {
+			throw new IllegalArgumentException("Hash ring needs at least one node");
+		}
+		this.nodes = Collections.unmodifiableList(new ArrayList<String>(nodes));
+
+		TreeMap<Long, Integer> ring = new TreeMap<Long, Integer>();
+		for (int node = 0; node < nodes.size(); ++node) {
+			if (nodes.indexOf(nodes.get(node)) != node) {
+				throw new IllegalArgumentException("Duplicate node " + nodes.get(node));
+			}
+			for (int i = 0; i < VIRTUAL_NODES; ++i) {
+				ring.put(hash(nodes.get(node) + "#" + i), node);
+			}
+		}
+		points = new long[ring.size()];
+		owners = new int[ring.size()];
+		int index = 0;
+		for (Map.Entry<Long, Integer> point: ring.entrySet()) {
+			points[index] = point.getKey();
+			owners[index] = point.getValue();
+			++index;
+		}
+	}
+
+	/**
+	 * Parses comma separated node names, blank names are skipped.
+	 */
+	public static List<String> parseNodes(String list) {
+		List<String> nodes = new ArrayList<String>();
+		for (String node: list.split(",")) {
+			if (!node.trim().isEmpty()) {
+				nodes.add(node.trim());
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return index of the node owning the account
+	 */
+	public int ownerOf(int id) {
+		long hash = mix(id);
+		int low = 0;
+		int high = points.length - 1;
+		// first point at or after the hash, wrapping around to the first point
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (points[middle] < hash) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return owners[low < points.length ? low : 0];
+	}
+
+	public String getNode(int index) {
+		return nodes.get(index);
+	}
+
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	private static long hash(String name) {
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); ++i) {
+			hash ^= name.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	private static long mix(long value) {
+		// SplitMix64 finalizer, spreads sequential ids over the whole ring
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+
+	@Override
+	public String toString() {
+		return "hash ring " + nodes;
+	}
+}
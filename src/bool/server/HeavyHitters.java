@@ -0,0 +1,108 @@
+package bool.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Space-Saving sketch of the most frequent account ids.
+ * Only every samplingRate-th id on average is counted, and a sample is dropped rather than waited for
+ * when another thread is updating the sketch, so callers never block. Dropped samples are counted and
+ * reported rates are scaled up by them, so contention does not make accounts look colder.
+ * Each reported count may be overestimated by at most its error.
+ */
+public class HeavyHitters {
+	private final int samplingRate;
+	private final int[] ids;
+	private final long[] counts;
+	private final long[] errors;
+	private int size = 0;
+	private long sampled = 0;
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * @param capacity number of tracked ids, several times more than reported ones for better accuracy
+	 * @param samplingRate count one of samplingRate ids on average
+	 */
+	public HeavyHitters(int capacity, int samplingRate) {
+		this.samplingRate = Math.max(1, samplingRate);
+		ids = new int[capacity];
+		counts = new long[capacity];
+		errors = new long[capacity];
+	}
+
+	public void offer(int id) {
+		if (samplingRate > 1 && ThreadLocalRandom.current().nextInt(samplingRate) != 0) {
+			return;
+		}
+		if (!lock.tryLock()) {
+			dropped.incrementAndGet();
+			return;
+		}
+		try {
+			++sampled;
+			int min = 0;
+			for (int i = 0; i < size; ++i) {
+				if (ids[i] == id) {
+					++counts[i];
+					return;
+				}
+				if (counts[i] < counts[min]) {
+					min = i;
+				}
+			}
+			if (size < ids.length) {
+				ids[size] = id;
+				counts[size] = 1;
+				errors[size] = 0;
+				++size;
+			} else {
+				// replace the least counted id, new id inherits its count as possible error
+				ids[min] = id;
+				errors[min] = counts[min];
+				++counts[min];
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the most frequent ids and starts counting from scratch.
+	 * Ids are ordered by guaranteed count, so ids which got most of their count from replaced ones go last.
+	 *
+	 * @param seconds time passed since the previous call, used to convert counts to rates
+	 */
+	public List<HotAccount> takeTop(int count, double seconds) {
+		List<HotAccount> top = new ArrayList<HotAccount>(size);
+		lock.lock();
+		try {
+			// samples dropped on contention hit the same ids as counted ones on average
+			long lost = dropped.getAndSet(0);
+			double scale = samplingRate / Math.max(seconds, 0.001) * (sampled > 0 ? (double) (sampled + lost) / sampled : 1);
+			for (int i = 0; i < size; ++i) {
+				top.add(new HotAccount(ids[i], Math.round(counts[i] * scale), Math.round(errors[i] * scale)));
+			}
+			size = 0;
+			sampled = 0;
+		} finally {
+			lock.unlock();
+		}
+
+		Collections.sort(top, new Comparator<HotAccount>() {
+			@Override
+			public int compare(HotAccount a, HotAccount b) {
+				long aGuaranteed = a.perSecond - a.error;
+				long bGuaranteed = b.perSecond - b.error;
+				return aGuaranteed < bGuaranteed ? 1 : aGuaranteed > bGuaranteed ? -1 : 0;
+			}
+		});
+		return new ArrayList<HotAccount>(top.subList(0, Math.min(count, top.size())));
+	}
+}
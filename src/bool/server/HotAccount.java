@@ -0,0 +1,29 @@
+package bool.server;
+
+import java.io.Serializable;
+
+/**
+ * Frequently accessed account with approximate access rate.
+ */
+public class HotAccount implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final int id;
+
+	/**
+	 * Estimated number of accesses per second, may be overestimated by at most error.
+	 */
+	public final long perSecond;
+	public final long error;
+
+	public HotAccount(int id, long perSecond, long error) {
+		this.id = id;
+		this.perSecond = perSecond;
+		this.error = error;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d:~%d/s(+-%d)", id, perSecond, error);
+	}
+}
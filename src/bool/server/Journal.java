@@ -0,0 +1,367 @@
+package bool.server;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only write-ahead log of account states. Writers append records to a memory buffer,
+ * a single sync thread writes the buffer to the current segment file and forces it to disk,
+ * so one fsync commits all records appended while the previous one was running.
+ * <p>
+ * Record holds the resulting balance and the account sequence rather than the increment,
+ * so replaying a record already applied to the storage is harmless: sequence-conditional
+ * upsert keeps the newer state. Segments are rolled at the size limit and deleted once
+ * the barrier reports that everything appended to them has reached the storage.
+ */
+public class Journal {
+
+	/**
+	 * Tells when journaled changes are applied to the storage.
+	 */
+	public interface Barrier {
+		/**
+		 * @return mark passed when all changes made before this call are applied
+		 */
+		long mark();
+
+		boolean isPassed(long mark);
+	}
+
+	public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+	private static final int MAGIC = 0x41534a31;
+	private static final int HEADER_SIZE = 4;
+	private static final int RECORD_SIZE = 4 + 8 + 8;
+	private static final int BUFFER_RECORDS = 16384;
+	private static final int REPLAY_BATCH = 1000;
+	private static final long IDLE_INTERVAL = 100;
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static class Segment {
+		final File file;
+		final long mark;
+
+		Segment(File file, long mark) {
+			this.file = file;
+			this.mark = mark;
+		}
+	}
+
+	private final File directory;
+	private final long segmentSize;
+	private final Barrier barrier;
+	private final LatencyHistogram syncLatency;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+	private final Condition synced = lock.newCondition();
+	private ByteBuffer active = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+	private ByteBuffer flushing = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+	private long appendedPosition = 0;
+	private long durablePosition = 0;
+	private IOException failure;
+	private boolean running = true;
+
+	// accessed by the sync thread only
+	private final ArrayDeque<Segment> closedSegments = new ArrayDeque<Segment>();
+	private File segmentFile;
+	private FileChannel channel;
+	private long segmentBytes;
+
+	private final Thread syncer;
+
+	/**
+	 * Starts a new journal in the directory, which must not contain segments left from
+	 * previous run, see replay().
+	 *
+	 * @param segmentSize size in bytes after which the next segment is started
+	 * @param syncLatency receives duration of each write and fsync
+	 */
+	public Journal(File directory, long segmentSize, Barrier barrier, LatencyHistogram syncLatency) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.barrier = barrier;
+		this.syncLatency = syncLatency;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + directory);
+		}
+		if (segments(directory).length > 0) {
+			throw new IOException("Journal directory " + directory + " contains segments which were not replayed");
+		}
+		openSegment(0);
+
+		syncer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runSyncer();
+			}
+		}, "journal-sync");
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+
+	/**
+	 * Applies records of all segments found in the directory to the storage and deletes the segments.
+	 * Incomplete record at the end of a segment, left by a crash during write, is ignored.
+	 *
+	 * @return number of replayed records
+	 */
+	public static long replay(File directory, Storage storage) throws IOException, SQLException {
+		File[] files = segments(directory);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * REPLAY_BATCH);
+		int[] ids = new int[REPLAY_BATCH];
+		long[] values = new long[REPLAY_BATCH];
+		long[] sequences = new long[REPLAY_BATCH];
+		long replayed = 0;
+
+		for (File file: files) {
+			FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				readFully(in, header);
+				if (header.position() < HEADER_SIZE) {
+					continue;
+				}
+				if (header.getInt(0) != MAGIC) {
+					throw new IOException(file + " is not a journal segment");
+				}
+
+				while (true) {
+					buffer.clear();
+					readFully(in, buffer);
+					buffer.flip();
+					int count = 0;
+					while (buffer.remaining() >= RECORD_SIZE) {
+						ids[count] = buffer.getInt();
+						values[count] = buffer.getLong();
+						sequences[count] = buffer.getLong();
+						++count;
+					}
+					if (count > 0) {
+						storage.upsertBatch(ids, values, sequences, count);
+						replayed += count;
+					}
+					if (count < REPLAY_BATCH) {
+						break;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		for (File file: files) {
+			if (!file.delete()) {
+				throw new IOException("Cannot delete replayed journal segment " + file);
+			}
+		}
+		return replayed;
+	}
+
+	/**
+	 * Appends account state to the buffer, waits if the buffer is full.
+	 *
+	 * @return position to pass to await()
+	 */
+	public long append(int id, long value, long sequence) throws IOException, InterruptedException {
+		lock.lock();
+		try {
+			while (true) {
+				if (failure != null) {
+					throw new IOException("Journal write failed", failure);
+				}
+				if (!running) {
+					throw new IllegalStateException("Journal is closed");
+				}
+				if (active.remaining() >= RECORD_SIZE) {
+					break;
+				}
+				synced.await();
+			}
+			active.putInt(id).putLong(value).putLong(sequence);
+			appended.signal();
+			return ++appendedPosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until records up to the position are forced to disk.
+	 */
+	public void await(long position) throws IOException, InterruptedException {
+		lock.lock();
+		try {
+			while (durablePosition < position) {
+				if (failure != null) {
+					throw new IOException("Journal write failed", failure);
+				}
+				synced.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends account state and waits until it is on disk.
+	 */
+	public void write(int id, long value, long sequence) throws IOException, InterruptedException {
+		await(append(id, value, sequence));
+	}
+
+	/**
+	 * Writes remaining records and stops the sync thread. Segments are deleted
+	 * if the barrier reports all changes applied, so call it after the storage is brought up to date.
+	 */
+	public void close() throws IOException, InterruptedException {
+		lock.lock();
+		try {
+			running = false;
+			appended.signal();
+		} finally {
+			lock.unlock();
+		}
+		syncer.join();
+
+		channel.close();
+		if (failure == null && barrier.isPassed(barrier.mark())) {
+			for (Segment segment: closedSegments) {
+				segment.file.delete();
+			}
+			closedSegments.clear();
+			segmentFile.delete();
+		}
+	}
+
+	private void runSyncer() {
+		try {
+			while (true) {
+				ByteBuffer buffer = null;
+				long end = 0;
+				lock.lock();
+				try {
+					if (active.position() == 0 && running) {
+						appended.await(IDLE_INTERVAL, TimeUnit.MILLISECONDS);
+					}
+					if (active.position() > 0) {
+						buffer = active;
+						active = flushing;
+						flushing = buffer;
+						end = appendedPosition;
+						// writers waiting for space can go on
+						synced.signalAll();
+					} else if (!running) {
+						return;
+					}
+				} finally {
+					lock.unlock();
+				}
+
+				if (buffer != null) {
+					sync(buffer, end);
+				}
+				deleteAppliedSegments();
+			}
+		} catch (IOException e) {
+			fail(e);
+		} catch (InterruptedException e) {
+			fail(new InterruptedIOException("Journal sync thread interrupted"));
+		}
+	}
+
+	private void sync(ByteBuffer buffer, long end) throws IOException {
+		long start = System.nanoTime();
+		buffer.flip();
+		if (segmentBytes > HEADER_SIZE && segmentBytes + buffer.remaining() > segmentSize) {
+			// every record in the closed segment was appended before the mark is taken
+			closedSegments.add(new Segment(segmentFile, barrier.mark()));
+			channel.close();
+			openSegment(end - buffer.remaining() / RECORD_SIZE);
+		}
+		segmentBytes += buffer.remaining();
+		writeFully(buffer);
+		channel.force(false);
+		buffer.clear();
+		syncLatency.recordSince(start);
+
+		lock.lock();
+		try {
+			durablePosition = end;
+			synced.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void fail(IOException e) {
+		e.printStackTrace();
+		lock.lock();
+		try {
+			failure = e;
+			synced.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void deleteAppliedSegments() {
+		while (!closedSegments.isEmpty() && barrier.isPassed(closedSegments.peek().mark)) {
+			closedSegments.poll().file.delete();
+		}
+	}
+
+	private void openSegment(long firstPosition) throws IOException {
+		segmentFile = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, firstPosition, SEGMENT_SUFFIX));
+		channel = FileChannel.open(segmentFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).flip();
+		writeFully(header);
+		channel.force(true);
+		segmentBytes = HEADER_SIZE;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return segment files of the directory in the order they were written
+	 */
+	private static File[] segments(File directory) {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+}
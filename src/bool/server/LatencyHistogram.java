@@ -0,0 +1,155 @@
+package bool.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent log-linear histogram of latencies in nanoseconds.
+ * Each power of two range is split into 32 linear buckets, so any recorded value is reported
+ * with at most 1/32 relative error. Recording is wait-free and does not allocate.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values above are counted as the highest value, about 68 seconds.
+	 */
+	public static final long HIGHEST_VALUE = (1L << 36) - 1;
+
+	private static final int BUCKETS = bucketIndex(HIGHEST_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	public void record(long nanos) {
+		counts.incrementAndGet(bucketIndex(Math.max(0, Math.min(nanos, HIGHEST_VALUE))));
+	}
+
+	/**
+	 * Records time passed since the given System.nanoTime() value.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Copies current counts, concurrent recordings may be partially included.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts.set(i, 0);
+		}
+	}
+
+	/**
+	 * Values below 2 * SUB_BUCKETS have their own buckets, larger values share a bucket
+	 * with values having the same SUB_BUCKET_BITS + 1 highest bits.
+	 */
+	static int bucketIndex(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * @return the highest value counted in the bucket
+	 */
+	static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Histogram counts at some moment, interval views are obtained as difference of two snapshots.
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+
+		private Snapshot(long[] counts) {
+			this.counts = counts;
+			long sum = 0;
+			for (long value: counts) {
+				sum += value;
+			}
+			this.count = sum;
+		}
+
+		/**
+		 * @return counts recorded after the earlier snapshot
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			long[] delta = new long[counts.length];
+			for (int i = 0; i < counts.length; ++i) {
+				delta[i] = Math.max(0, counts[i] - earlier.counts[i]);
+			}
+			return new Snapshot(delta);
+		}
+
+		/**
+		 * @return counts of both snapshots, merges histograms of several recorders
+		 */
+		public Snapshot plus(Snapshot other) {
+			long[] sum = new long[counts.length];
+			for (int i = 0; i < counts.length; ++i) {
+				sum[i] = counts[i] + other.counts[i];
+			}
+			return new Snapshot(sum);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @param percentile value in range (0, 100]
+		 * @return value in nanoseconds which is not exceeded by the given percent of recorded values, 0 if nothing is recorded
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; ++i) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highestValue(i);
+				}
+			}
+			return getMax();
+		}
+
+		public long getMax() {
+			for (int i = counts.length - 1; i >= 0; --i) {
+				if (counts[i] > 0) {
+					return highestValue(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Formats count, p50, p90, p99, p99.9 and max in milliseconds.
+		 */
+		@Override
+		public String toString() {
+			return String.format("count:%d p50:%.3fms p90:%.3fms p99:%.3fms p99.9:%.3fms max:%.3fms",
+					count, getValueAtPercentile(50) / 1e6, getValueAtPercentile(90) / 1e6, getValueAtPercentile(99) / 1e6,
+					getValueAtPercentile(99.9) / 1e6, getMax() / 1e6);
+		}
+	}
+}
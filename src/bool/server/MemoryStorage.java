@@ -0,0 +1,331 @@
+package bool.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Embedded storage keeping records in process memory, for running the service without a database server.
+ * Optionally every written record is appended to a file before it becomes visible, the file is replayed on open
+ * and compacted when it grows twice as large as the stored records. Appended records are handed to the OS
+ * without fsync, so they survive a crash of the process but not of the machine.
+ */
+public class MemoryStorage implements Storage {
+	private static final int MAGIC = 0x41535431;
+	private static final int HEADER_SIZE = 4;
+	private static final int RECORD_SIZE = 4 + 8 + 8;
+	private static final int BUFFER_RECORDS = 4096;
+	private static final long MIN_COMPACTED_RECORDS = 1 << 20;
+
+	private final ConcurrentSkipListMap<Integer, Record> records = new ConcurrentSkipListMap<Integer, Record>();
+
+	private final File file;
+	private final ReentrantLock fileLock = new ReentrantLock();
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+	private FileChannel channel;
+	private long fileRecords;
+
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+	/**
+	 * Creates storage which is lost when the process exits.
+	 */
+	public MemoryStorage() {
+		this.file = null;
+	}
+
+	/**
+	 * Creates storage backed by the file, records already written to the file are loaded.
+	 */
+	public MemoryStorage(File file) throws SQLException {
+		this.file = file;
+		try {
+			open();
+		} catch (IOException e) {
+			throw new SQLException("Cannot open storage file " + file, e);
+		}
+	}
+
+	@Override
+	public Record readRecord(int id) {
+		long start = System.nanoTime();
+		try {
+			Record record = records.get(id);
+			return record != null ? record : new Record(0, 0);
+		} finally {
+			readLatency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void readRecords(int[] ids, int count, RecordHandler handler) {
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < count; ++i) {
+				Record record = records.get(ids[i]);
+				if (record != null) {
+					handler.record(ids[i], record.value, record.sequence);
+				}
+			}
+		} finally {
+			readLatency.recordSince(start);
+		}
+	}
+
+	@Override
+	public int upsert(int id, long value, long sequence) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			if (file == null) {
+				return put(id, new Record(value, sequence)) ? 1 : 0;
+			}
+			return append(new int[] {id}, new long[] {value}, new long[] {sequence}, 1);
+		} finally {
+			writeLatency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void upsertBatch(int[] ids, long[] values, long[] sequences, int count) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			if (file == null) {
+				for (int i = 0; i < count; ++i) {
+					put(ids[i], new Record(values[i], sequences[i]));
+				}
+			} else {
+				append(ids, values, sequences, count);
+			}
+		} finally {
+			writeLatency.recordSince(start);
+		}
+	}
+
+	@Override
+	public void scan(int fromId, int toId, int fetchSize, RecordHandler handler) {
+		for (Map.Entry<Integer, Record> entry: records.subMap(fromId, true, toId, true).entrySet()) {
+			Record record = entry.getValue();
+			if (!handler.record(entry.getKey(), record.value, record.sequence)) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public int[] idRange(int fromId, int toId) {
+		ConcurrentNavigableMap<Integer, Record> range = records.subMap(fromId, true, toId, true);
+		Map.Entry<Integer, Record> first = range.firstEntry();
+		Map.Entry<Integer, Record> last = range.lastEntry();
+		if (first == null || last == null) {
+			return null;
+		}
+		return new int[] {first.getKey(), last.getKey()};
+	}
+
+	public int size() {
+		return records.size();
+	}
+
+	@Override
+	public ConnectionPool getPool() {
+		return null;
+	}
+
+	@Override
+	public LatencyHistogram getReadLatency() {
+		return readLatency;
+	}
+
+	@Override
+	public LatencyHistogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	@Override
+	public void close() {
+		if (file == null) {
+			return;
+		}
+		fileLock.lock();
+		try {
+			if (channel.isOpen()) {
+				channel.force(false);
+				channel.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			fileLock.unlock();
+		}
+	}
+
+	/**
+	 * @return false if stored record has greater or equal sequence
+	 */
+	private boolean put(int id, Record record) {
+		while (true) {
+			Record stored = records.putIfAbsent(id, record);
+			if (stored == null) {
+				return true;
+			}
+			if (stored.sequence >= record.sequence) {
+				return false;
+			}
+			if (records.replace(id, stored, record)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Writes records to the file and only then stores them, so a record is never seen before it is written.
+	 * Records are stored under the file lock, so compaction sees every record already written.
+	 * Records skipped as outdated are appended too, replay skips them again.
+	 *
+	 * @return number of stored records
+	 */
+	private int append(int[] ids, long[] values, long[] sequences, int count) throws SQLException {
+		fileLock.lock();
+		try {
+			for (int i = 0; i < count; ++i) {
+				if (writeBuffer.remaining() < RECORD_SIZE) {
+					writeFully(writeBuffer);
+				}
+				writeBuffer.putInt(ids[i]).putLong(values[i]).putLong(sequences[i]);
+			}
+			writeFully(writeBuffer);
+			fileRecords += count;
+
+			int stored = 0;
+			for (int i = 0; i < count; ++i) {
+				if (put(ids[i], new Record(values[i], sequences[i]))) {
+					++stored;
+				}
+			}
+
+			if (fileRecords > MIN_COMPACTED_RECORDS && fileRecords > 2L * records.size()) {
+				try {
+					compact();
+				} catch (IOException e) {
+					// records are written already, the uncompacted file stays in use
+					e.printStackTrace();
+				}
+			}
+			return stored;
+		} catch (IOException e) {
+			throw new SQLException("Cannot write storage file " + file, e);
+		} finally {
+			writeBuffer.clear();
+			fileLock.unlock();
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Replays file records, a partially written record at the end is dropped.
+	 */
+	private void open() throws IOException {
+		if (!file.exists() || file.length() < HEADER_SIZE) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+			writeFully(header);
+			return;
+		}
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * BUFFER_RECORDS);
+		buffer.limit(HEADER_SIZE);
+		readFully(buffer);
+		if (buffer.getInt(0) != MAGIC) {
+			channel.close();
+			throw new IOException("Not a storage file: " + file);
+		}
+
+		long position = HEADER_SIZE;
+		buffer.clear();
+		while (channel.read(buffer) > 0) {
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				put(buffer.getInt(), new Record(buffer.getLong(), buffer.getLong()));
+				position += RECORD_SIZE;
+				++fileRecords;
+			}
+			buffer.compact();
+		}
+		channel.truncate(position);
+		channel.position(position);
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of storage file " + file);
+			}
+		}
+	}
+
+	/**
+	 * Rewrites file with current records only, called under file lock.
+	 * The compacted file is written and moved over the file while the old channel stays open,
+	 * so if anything fails the old file keeps being appended to.
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(file.getPath() + ".compact");
+		FileChannel target = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		long count = 0;
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+			buffer.putInt(MAGIC);
+			for (Map.Entry<Integer, Record> entry: records.entrySet()) {
+				if (buffer.remaining() < RECORD_SIZE) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						target.write(buffer);
+					}
+					buffer.clear();
+				}
+				buffer.putInt(entry.getKey()).putLong(entry.getValue().value).putLong(entry.getValue().sequence);
+				++count;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				target.write(buffer);
+			}
+			target.force(false);
+			// the open channel follows the compacted file to its new name
+			Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			target.close();
+			Files.deleteIfExists(compacted.toPath());
+			throw e;
+		}
+
+		FileChannel old = channel;
+		channel = target;
+		fileRecords = count;
+		try {
+			old.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
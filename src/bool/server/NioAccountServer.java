@@ -0,0 +1,415 @@
+package bool.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves RemoteAccountService operations over NioProtocol.
+ * Single selector thread reads and writes all connections, operations are executed by the given executor
+ * because they may block on database. Read buffers and small response buffers are direct and reused.
+ * A connection stops being read while MAX_IN_FLIGHT of its requests wait for their responses to be written,
+ * so a pipelining client cannot queue work without bound.
+ */
+public class NioAccountServer {
+	public static final int MAX_IN_FLIGHT = 1024;
+	public static final long CLOSE_TIMEOUT = 10000;
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int RESPONSE_BUFFER_SIZE = 256;
+	private static final int MAX_POOLED_BUFFERS = 4096;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final RemoteAccountService service;
+	private final ExecutorService executor;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread selectorThread;
+
+	private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+	private final ConcurrentLinkedQueue<ByteBuffer> responseBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param executor runs operations, it is owned by the server and shut down on close
+	 */
+	public NioAccountServer(RemoteAccountService service, int port, ExecutorService executor) throws IOException {
+		this.service = service;
+		this.executor = executor;
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		selectorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runSelector();
+			}
+		}, "nio-account-server");
+		selectorThread.setDaemon(true);
+	}
+
+	public void start() {
+		selectorThread.start();
+	}
+
+	/**
+	 * Stops serving and waits up to CLOSE_TIMEOUT for operations already taken by the executor.
+	 */
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join();
+			executor.shutdown();
+			if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key: selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+	}
+
+	private void runSelector() {
+		try {
+			while (running) {
+				selector.select();
+
+				Connection connection;
+				while ((connection = pendingWrites.poll()) != null) {
+					try {
+						write(connection);
+					} catch (IOException e) {
+						closeQuietly(connection.key);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+						closeQuietly(connection.key);
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							if (key.isReadable()) {
+								read((Connection) key.attachment());
+							}
+							if (key.isValid() && key.isWritable()) {
+								write((Connection) key.attachment());
+							}
+						}
+					} catch (IOException e) {
+						closeQuietly(key);
+					} catch (RuntimeException e) {
+						// only the connection which caused it is dropped, the selector keeps serving others
+						e.printStackTrace();
+						closeQuietly(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ClosedSelectorException e) {
+			// server closed
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+
+	private void read(Connection connection) throws IOException {
+		if (connection.channel.read(connection.readBuffer) < 0) {
+			closeQuietly(connection.key);
+			return;
+		}
+		dispatchFrames(connection);
+		setInterest(connection, (connection.key.interestOps() & SelectionKey.OP_WRITE) != 0);
+	}
+
+	/**
+	 * Dispatches complete frames of the read buffer until MAX_IN_FLIGHT requests of the connection are in flight,
+	 * the rest stays in the buffer.
+	 */
+	private void dispatchFrames(Connection connection) throws IOException {
+		ByteBuffer buffer = connection.readBuffer;
+		buffer.flip();
+		while (connection.inFlight < MAX_IN_FLIGHT && buffer.remaining() >= 4) {
+			int length = buffer.getInt(buffer.position());
+			if (length < 5 || length > NioProtocol.MAX_FRAME_LENGTH) {
+				throw new IOException("Invalid frame length: " + length);
+			}
+			if (buffer.remaining() < 4 + length) {
+				if (4 + length > buffer.capacity()) {
+					ByteBuffer larger = ByteBuffer.allocateDirect(4 + length);
+					larger.put(buffer);
+					connection.readBuffer = larger;
+					return;
+				}
+				break;
+			}
+
+			buffer.getInt();
+			// frame is decoded from its own view, so a malformed frame never reads into the next one
+			ByteBuffer frame = buffer.slice();
+			frame.limit(length);
+			buffer.position(buffer.position() + length);
+			dispatch(connection, decode(frame));
+		}
+		buffer.compact();
+
+		if (buffer.capacity() > READ_BUFFER_SIZE && buffer.position() <= READ_BUFFER_SIZE) {
+			// large frame is processed, get back to the regular buffer
+			buffer.flip();
+			connection.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE).put(buffer);
+		}
+	}
+
+	/**
+	 * @param buffer frame without the length field, limited to the frame
+	 * @throws IOException if frame length does not match its operation arguments
+	 */
+	private Request decode(ByteBuffer buffer) throws IOException {
+		int length = buffer.remaining();
+		Request request = new Request();
+		request.operation = buffer.get();
+		request.requestId = buffer.getInt();
+		switch (request.operation) {
+		case NioProtocol.GET:
+			checkLength(request, length, 5 + 4);
+			request.ids = new int[] {buffer.getInt()};
+			break;
+		case NioProtocol.ADD:
+			checkLength(request, length, 5 + 4 + 8);
+			request.ids = new int[] {buffer.getInt()};
+			request.values = new long[] {buffer.getLong()};
+			break;
+		case NioProtocol.GET_BATCH:
+			request.ids = new int[readCount(request, buffer, length, 4)];
+			for (int i = 0; i < request.ids.length; ++i) {
+				request.ids[i] = buffer.getInt();
+			}
+			break;
+		case NioProtocol.ADD_BATCH:
+			int count = readCount(request, buffer, length, 4 + 8);
+			request.ids = new int[count];
+			request.values = new long[count];
+			for (int i = 0; i < count; ++i) {
+				request.ids[i] = buffer.getInt();
+				request.values[i] = buffer.getLong();
+			}
+			break;
+		default:
+			throw new IOException("Unknown operation: " + request.operation);
+		}
+		return request;
+	}
+
+	private static void checkLength(Request request, int length, long expected) throws IOException {
+		if (length != expected) {
+			throw new IOException("Invalid frame length " + length + " of operation " + request.operation + ", expected " + expected);
+		}
+	}
+
+	/**
+	 * Reads batch count and checks the frame holds exactly count entries.
+	 */
+	private static int readCount(Request request, ByteBuffer buffer, int length, int entrySize) throws IOException {
+		if (length < 9) {
+			throw new IOException("Invalid frame length " + length + " of operation " + request.operation);
+		}
+		int count = buffer.getInt();
+		if (count < 0 || count > (length - 9) / entrySize) {
+			throw new IOException("Invalid batch count " + count + " in frame of length " + length);
+		}
+		checkLength(request, length, 9 + (long) count * entrySize);
+		return count;
+	}
+
+	private void dispatch(final Connection connection, final Request request) {
+		++connection.inFlight;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				connection.send(execute(request));
+			}
+		});
+	}
+
+	private ByteBuffer execute(Request request) {
+		try {
+			switch (request.operation) {
+			case NioProtocol.GET:
+				long amount = service.getAmount(request.ids[0]);
+				return response(request, 8).putLong(amount);
+			case NioProtocol.ADD:
+				service.addAmount(request.ids[0], request.values[0]);
+				return response(request, 0);
+			case NioProtocol.GET_BATCH:
+				long[] amounts = service.getAmounts(request.ids);
+				ByteBuffer buffer = response(request, 4 + 8 * amounts.length).putInt(amounts.length);
+				for (long value: amounts) {
+					buffer.putLong(value);
+				}
+				return buffer;
+			default:
+				service.addAmounts(request.ids, request.values);
+				return response(request, 0);
+			}
+		} catch (RemoteException e) {
+			return error(request, e.getMessage());
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return error(request, String.valueOf(e));
+		}
+	}
+
+	private ByteBuffer error(Request request, String message) {
+		byte[] bytes = String.valueOf(message).getBytes(UTF8);
+		int length = Math.min(bytes.length, Short.MAX_VALUE);
+		ByteBuffer buffer = response(request, 2 + length);
+		buffer.put(buffer.position() - 1, NioProtocol.ERROR);
+		return buffer.putShort((short) length).put(bytes, 0, length);
+	}
+
+	/**
+	 * Takes response buffer with filled header, pooled direct buffer is used for small responses.
+	 */
+	private ByteBuffer response(Request request, int resultLength) {
+		int frameLength = NioProtocol.RESPONSE_HEADER_LENGTH + resultLength;
+		ByteBuffer buffer = null;
+		if (frameLength <= RESPONSE_BUFFER_SIZE) {
+			buffer = responseBuffers.poll();
+			if (buffer == null) {
+				buffer = ByteBuffer.allocateDirect(RESPONSE_BUFFER_SIZE);
+			}
+		} else {
+			buffer = ByteBuffer.allocate(frameLength);
+		}
+		buffer.clear();
+		return buffer.putInt(frameLength - 4).putInt(request.requestId).put(NioProtocol.OK);
+	}
+
+	private void write(Connection connection) throws IOException {
+		if (!connection.key.isValid()) {
+			return;
+		}
+
+		while (true) {
+			ByteBuffer buffer;
+			while ((buffer = connection.writes.peek()) != null) {
+				connection.channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					setInterest(connection, true);
+					return;
+				}
+				connection.writes.poll();
+				--connection.inFlight;
+				if (buffer.isDirect() && buffer.capacity() == RESPONSE_BUFFER_SIZE && responseBuffers.size() < MAX_POOLED_BUFFERS) {
+					responseBuffers.offer(buffer);
+				}
+			}
+
+			if ((connection.key.interestOps() & SelectionKey.OP_READ) == 0 && connection.inFlight < MAX_IN_FLIGHT) {
+				// frames read before the connection was suspended are not announced by the selector again
+				dispatchFrames(connection);
+			}
+			setInterest(connection, false);
+			connection.writeScheduled.set(false);
+			if (connection.writes.isEmpty() || !connection.writeScheduled.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads the connection only while it has room for more requests in flight.
+	 */
+	private void setInterest(Connection connection, boolean writing) {
+		int ops = connection.inFlight < MAX_IN_FLIGHT ? SelectionKey.OP_READ : 0;
+		connection.key.interestOps(writing ? ops | SelectionKey.OP_WRITE : ops);
+	}
+
+	private void closeQuietly(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	private static class Request {
+		byte operation;
+		int requestId;
+		int[] ids;
+		long[] values;
+	}
+
+	private class Connection {
+		private final SocketChannel channel;
+		private final ConcurrentLinkedQueue<ByteBuffer> writes = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+		private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		private SelectionKey key;
+		/**
+		 * Requests dispatched and not yet answered, used by the selector thread only.
+		 */
+		private int inFlight;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Queues filled response buffer, called from executor threads.
+		 */
+		void send(ByteBuffer response) {
+			if (!running) {
+				// server is closed, nobody writes the response
+				return;
+			}
+			response.flip();
+			writes.add(response);
+			if (writeScheduled.compareAndSet(false, true)) {
+				pendingWrites.add(this);
+				selector.wakeup();
+			}
+		}
+	}
+}
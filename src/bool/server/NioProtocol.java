@@ -0,0 +1,41 @@
+package bool.server;
+
+/**
+ * Binary protocol of NioAccountServer, all numbers are big-endian.
+ *
+ * Request frame:  int length, byte operation, int requestId, operation arguments
+ *   GET:       int id
+ *   ADD:       int id, long value
+ *   GET_BATCH: int count, int[count] ids
+ *   ADD_BATCH: int count, (int id, long value)[count]
+ *
+ * Response frame: int length, int requestId, byte status, result
+ *   GET:       long amount
+ *   ADD:       nothing
+ *   GET_BATCH: int count, long[count] amounts
+ *   ADD_BATCH: nothing
+ *   ERROR status: short length, UTF-8 message
+ *
+ * Length counts bytes following the length field. Requests may be pipelined,
+ * responses are sent in completion order and matched by requestId.
+ */
+public final class NioProtocol {
+	public static final int DEFAULT_PORT = 1235;
+	public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	public static final byte GET = 1;
+	public static final byte ADD = 2;
+	public static final byte GET_BATCH = 3;
+	public static final byte ADD_BATCH = 4;
+
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+
+	/**
+	 * Length of response frame header: length, requestId and status.
+	 */
+	public static final int RESPONSE_HEADER_LENGTH = 4 + 4 + 1;
+
+	private NioProtocol() {
+	}
+}
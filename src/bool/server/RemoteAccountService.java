@@ -5,6 +5,7 @@ import java.rmi.RemoteException;
 
 public interface RemoteAccountService extends Remote {
 	static final String REGISTRY_LOOKUP_NAME = "AccountService";
+	static final int REGISTRY_PORT = 1234;
 	
 	/**
 	* Retrieves current balance or zero if addAmount() method was not called before for specified id
@@ -20,4 +21,20 @@ public interface RemoteAccountService extends Remote {
 	* @param value positive or negative value, which must be added to current balance
 	*/
 	void addAmount(Integer id, Long value) throws RemoteException;
+	
+	/**
+	* Retrieves current balances for all given ids in a single call, see getAmount()
+	*
+	* @param ids balance identifiers
+	* @return balances in the same order as ids
+	*/
+	long[] getAmounts(int[] ids) throws RemoteException;
+	
+	/**
+	* Increases balances in a single call, see addAmount()
+	*
+	* @param ids balance identifiers, may repeat
+	* @param values values added to balances with the same index, must have the same length as ids
+	*/
+	void addAmounts(int[] ids, long[] values) throws RemoteException;
 }
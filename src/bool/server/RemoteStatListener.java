@@ -0,0 +1,15 @@
+package bool.server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Callback exported by a statistics client, see RemoteStatService.subscribe
+ */
+public interface RemoteStatListener extends Remote {
+	
+	/**
+	* Receives statistics collected by the service, called once a collection interval
+	*/
+	void update(StatDelta delta) throws RemoteException;
+}
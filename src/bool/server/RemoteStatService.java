@@ -2,10 +2,48 @@ package bool.server;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface RemoteStatService extends Remote {
 	static final String REGISTRY_LOOKUP_NAME = "StatService";
 	
 	void reset() throws RemoteException;
 	String stat() throws RemoteException;
+	
+	/**
+	* Retrieves p50, p90, p99, p99.9 and max latencies of account operations and database calls
+	* for the last collection interval and since the last reset
+	*/
+	String latency() throws RemoteException;
+	
+	/**
+	* Retrieves the latest collected statistics, stat() returns the same data as text
+	*/
+	StatSnapshot snapshot() throws RemoteException;
+	
+	/**
+	* Retrieves per-second samples kept in statistics history, including read and write latency percentiles
+	*
+	* @param timestamp time in milliseconds since epoch, use timestamp of the last received sample to get only new ones
+	* @return samples collected after the given time, oldest first
+	*/
+	List<StatSnapshot> statSince(long timestamp) throws RemoteException;
+	
+	/**
+	* Retrieves the most frequently read accounts over the last 10 seconds window, most frequent first
+	*/
+	List<HotAccount> hotReads() throws RemoteException;
+	
+	/**
+	* Retrieves the most frequently changed accounts over the last 10 seconds window, most frequent first
+	*/
+	List<HotAccount> hotWrites() throws RemoteException;
+	
+	/**
+	* Pushes statistics to the listener after every collection instead of polling, only changed fields are sent.
+	* Listener is dropped once a push to it fails
+	*/
+	void subscribe(RemoteStatListener listener) throws RemoteException;
+	
+	void unsubscribe(RemoteStatListener listener) throws RemoteException;
 }
@@ -0,0 +1,84 @@
+package bool.server;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Statistics pushed to a listener: only the fields changed since the previously pushed snapshot are carried,
+ * latency percentiles included. Hot accounts are null unless they changed, the first push of a subscription carries everything.
+ */
+public class StatDelta implements Serializable {
+	private static final long serialVersionUID = 2L;
+
+	public final long timestamp;
+
+	/**
+	 * Bit per snapshot field set if the field is carried in values.
+	 */
+	private final int changed;
+	private final long[] values;
+
+	public final List<HotAccount> hotReads;
+	public final List<HotAccount> hotWrites;
+
+	private StatDelta(long timestamp, int changed, long[] values, List<HotAccount> hotReads, List<HotAccount> hotWrites) {
+		this.timestamp = timestamp;
+		this.changed = changed;
+		this.values = values;
+		this.hotReads = hotReads;
+		this.hotWrites = hotWrites;
+	}
+
+	/**
+	 * @param previous snapshot the listener already has or null to carry all fields
+	 * @param hotReads hot read accounts or null if the listener already has them
+	 * @param hotWrites hot write accounts or null if the listener already has them
+	 */
+	public static StatDelta between(StatSnapshot previous, StatSnapshot current,
+			List<HotAccount> hotReads, List<HotAccount> hotWrites) {
+		long[] currentFields = current.toFields();
+		long[] previousFields = previous != null ? previous.toFields() : null;
+		long[] values = new long[StatSnapshot.FIELD_COUNT];
+		int changed = 0;
+		int count = 0;
+		for (int i = 0; i < StatSnapshot.FIELD_COUNT; ++i) {
+			if (previousFields == null || previousFields[i] != currentFields[i]) {
+				changed |= 1 << i;
+				values[count++] = currentFields[i];
+			}
+		}
+		return new StatDelta(current.timestamp, changed, Arrays.copyOf(values, count), hotReads, hotWrites);
+	}
+
+	/**
+	 * Restores the pushed snapshot.
+	 *
+	 * @param previous snapshot built from the previous push of the subscription, null for the first push
+	 * @throws IllegalStateException if the delta does not carry all fields and there is no previous snapshot
+	 */
+	public StatSnapshot applyTo(StatSnapshot previous) {
+		if (previous == null && !isFull()) {
+			throw new IllegalStateException("No snapshot to apply delta to");
+		}
+		long[] fields = previous != null ? previous.toFields() : new long[StatSnapshot.FIELD_COUNT];
+		int index = 0;
+		for (int i = 0; i < StatSnapshot.FIELD_COUNT; ++i) {
+			if ((changed & (1 << i)) != 0) {
+				fields[i] = values[index++];
+			}
+		}
+		return StatSnapshot.fromFields(timestamp, fields);
+	}
+
+	/**
+	 * @return number of snapshot fields carried
+	 */
+	public int getChangedCount() {
+		return values.length;
+	}
+
+	public boolean isFull() {
+		return values.length == StatSnapshot.FIELD_COUNT;
+	}
+}
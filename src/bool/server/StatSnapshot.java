@@ -0,0 +1,108 @@
+package bool.server;
+
+import java.io.Serializable;
+
+/**
+ * Service statistics collected at one moment, rates are computed over the preceding collection interval.
+ */
+public class StatSnapshot implements Serializable {
+	private static final long serialVersionUID = 2L;
+
+	/**
+	 * Number of fields besides the timestamp, see {@link #toFields()}.
+	 */
+	static final int FIELD_COUNT = 21;
+
+	/**
+	 * Collection time in milliseconds since epoch.
+	 */
+	public final long timestamp;
+
+	public final long readsPerSecond;
+	public final long writesPerSecond;
+	public final long totalReads;
+	public final long totalWrites;
+
+	public final int poolActive;
+	public final int poolIdle;
+	public final double poolWaitMillis;
+
+	public final long dirtyAccounts;
+	public final long cachedAccounts;
+	public final long cacheHits;
+	public final long cacheMisses;
+	public final long cacheEvictions;
+	public final int cacheHitRatio;
+
+	/**
+	 * Latencies in nanoseconds of getAmount and getAmounts calls over the collection interval, 0 if there were none.
+	 */
+	public final long readP50;
+	public final long readP99;
+	public final long readP999;
+	public final long readMax;
+
+	/**
+	 * Latencies in nanoseconds of addAmount and addAmounts calls over the collection interval, 0 if there were none.
+	 */
+	public final long writeP50;
+	public final long writeP99;
+	public final long writeP999;
+	public final long writeMax;
+
+	public StatSnapshot(long timestamp, long readsPerSecond, long writesPerSecond, long totalReads, long totalWrites,
+			int poolActive, int poolIdle, double poolWaitMillis,
+			long dirtyAccounts, long cachedAccounts, long cacheHits, long cacheMisses, long cacheEvictions, int cacheHitRatio,
+			long readP50, long readP99, long readP999, long readMax,
+			long writeP50, long writeP99, long writeP999, long writeMax) {
+		this.timestamp = timestamp;
+		this.readsPerSecond = readsPerSecond;
+		this.writesPerSecond = writesPerSecond;
+		this.totalReads = totalReads;
+		this.totalWrites = totalWrites;
+		this.poolActive = poolActive;
+		this.poolIdle = poolIdle;
+		this.poolWaitMillis = poolWaitMillis;
+		this.dirtyAccounts = dirtyAccounts;
+		this.cachedAccounts = cachedAccounts;
+		this.cacheHits = cacheHits;
+		this.cacheMisses = cacheMisses;
+		this.cacheEvictions = cacheEvictions;
+		this.cacheHitRatio = cacheHitRatio;
+		this.readP50 = readP50;
+		this.readP99 = readP99;
+		this.readP999 = readP999;
+		this.readMax = readMax;
+		this.writeP50 = writeP50;
+		this.writeP99 = writeP99;
+		this.writeP999 = writeP999;
+		this.writeMax = writeMax;
+	}
+
+	/**
+	 * @return fields besides the timestamp in declaration order, double values as their bits
+	 */
+	long[] toFields() {
+		return new long[] {readsPerSecond, writesPerSecond, totalReads, totalWrites,
+				poolActive, poolIdle, Double.doubleToLongBits(poolWaitMillis),
+				dirtyAccounts, cachedAccounts, cacheHits, cacheMisses, cacheEvictions, cacheHitRatio,
+				readP50, readP99, readP999, readMax, writeP50, writeP99, writeP999, writeMax};
+	}
+
+	static StatSnapshot fromFields(long timestamp, long[] fields) {
+		return new StatSnapshot(timestamp, fields[0], fields[1], fields[2], fields[3],
+				(int) fields[4], (int) fields[5], Double.longBitsToDouble(fields[6]),
+				fields[7], fields[8], fields[9], fields[10], fields[11], (int) fields[12],
+				fields[13], fields[14], fields[15], fields[16], fields[17], fields[18], fields[19], fields[20]);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("readers per second:%d, writers per second:%d, total read requests:%d, total write requests:%d, "
+				+ "pool active:%d, pool idle:%d, pool wait:%.3fms, dirty accounts:%d, "
+				+ "cached accounts:%d, cache hits:%d, cache misses:%d, cache evictions:%d, cache hit ratio:%d%%",
+				readsPerSecond, writesPerSecond, totalReads, totalWrites,
+				poolActive, poolIdle, poolWaitMillis, dirtyAccounts,
+				cachedAccounts, cacheHits, cacheMisses, cacheEvictions, cacheHitRatio);
+	}
+}
@@ -0,0 +1,84 @@
+package bool.server;
+
+import java.sql.SQLException;
+
+/**
+ * Persistent account records. Each record keeps a balance and the sequence number of the last change included,
+ * stored record is replaced only by a record with greater sequence number.
+ * All storage failures are reported as SQLException whatever the storage is.
+ */
+public interface Storage {
+
+	/**
+	 * Receives scanned records.
+	 */
+	interface RecordHandler {
+		/**
+		 * @return false to stop scan
+		 */
+		boolean record(int id, long value, long sequence);
+	}
+
+	/**
+	 * Stored account state, zero value and sequence for absent records.
+	 */
+	class Record {
+		public final long value;
+		public final long sequence;
+
+		public Record(long value, long sequence) {
+			this.value = value;
+			this.sequence = sequence;
+		}
+	}
+
+	Record readRecord(int id) throws SQLException;
+
+	/**
+	 * Streams stored records for the first count ids to the handler, absent ids are skipped.
+	 */
+	void readRecords(int[] ids, int count, RecordHandler handler) throws SQLException;
+
+	/**
+	 * Writes record unless stored record has greater or equal sequence.
+	 *
+	 * @return 1 if record was written, 0 if stored record is newer
+	 */
+	int upsert(int id, long value, long sequence) throws SQLException;
+
+	/**
+	 * Upserts first count records at once, see upsert().
+	 */
+	void upsertBatch(int[] ids, long[] values, long[] sequences, int count) throws SQLException;
+
+	/**
+	 * Streams records with ids in range [fromId, toId] to the handler.
+	 *
+	 * @param fetchSize number of records transferred at once
+	 */
+	void scan(int fromId, int toId, int fetchSize, RecordHandler handler) throws SQLException;
+
+	/**
+	 * Finds minimal and maximal stored ids in range [fromId, toId].
+	 *
+	 * @return array of minimal and maximal id or null if there are no records in range
+	 */
+	int[] idRange(int fromId, int toId) throws SQLException;
+
+	/**
+	 * @return database connection pool or null if storage does not use one
+	 */
+	ConnectionPool getPool();
+
+	/**
+	 * Latencies of single and batched record reads.
+	 */
+	LatencyHistogram getReadLatency();
+
+	/**
+	 * Latencies of single and batched record writes.
+	 */
+	LatencyHistogram getWriteLatency();
+
+	void close();
+}
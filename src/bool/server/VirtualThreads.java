@@ -0,0 +1,84 @@
+package bool.server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads of Java 21 and later runtimes, sources are kept compatible with older runtimes
+ * so virtual threads are created through reflection.
+ */
+public final class VirtualThreads {
+	private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return true if the runtime supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		if (OF_VIRTUAL == null || NEW_THREAD_PER_TASK_EXECUTOR == null) {
+			return false;
+		}
+		try {
+			OF_VIRTUAL.invoke(null);
+			return true;
+		} catch (Exception e) {
+			// preview feature is not enabled
+			return false;
+		}
+	}
+
+	/**
+	 * Creates factory of virtual threads named prefix0, prefix1...
+	 *
+	 * @throws UnsupportedOperationException if the runtime does not support virtual threads
+	 */
+	public static ThreadFactory factory(String prefix) {
+		if (!isAvailable()) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by Java " + System.getProperty("java.version"));
+		}
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ClassNotFoundException e) {
+			throw new UnsupportedOperationException(e);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException(e);
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		} catch (InvocationTargetException e) {
+			throw new UnsupportedOperationException(e.getCause());
+		}
+	}
+
+	/**
+	 * Creates executor which starts a new virtual thread for each task.
+	 *
+	 * @throws UnsupportedOperationException if the runtime does not support virtual threads
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+		ThreadFactory factory = factory(prefix);
+		try {
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		} catch (InvocationTargetException e) {
+			throw new UnsupportedOperationException(e.getCause());
+		}
+	}
+
+	private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
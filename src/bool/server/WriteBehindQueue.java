@@ -0,0 +1,253 @@
+package bool.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of dirty entries drained by a single flusher thread.
+ * Entries are passed to the sink in batches when batch size is reached or flush interval elapsed,
+ * producers are blocked while the queue is full.
+ * Failed batch is retried with growing delay until storage is back. Batch rejected for its data is split
+ * to find the rejected entries, those are reported and queued again later, so one bad entry does not
+ * hold back the entries queued after it.
+ */
+public class WriteBehindQueue<T> {
+
+	public static final long MAX_RETRY_DELAY = 10000;
+	public static final long CLOSE_TIMEOUT = 30000;
+
+	/**
+	 * Receives batches of dirty entries, called from the flusher thread only.
+	 * Batch or its part is passed again on failure, so sink must take entry state at each call
+	 * and keep entries of a failed batch dirty.
+	 */
+	public interface Sink<T> {
+		/**
+		 * @throws RejectedException if storage refused entries of the batch, other exceptions are taken
+		 * as storage failure and the whole batch is retried
+		 */
+		void flush(List<T> batch) throws Exception;
+	}
+
+	/**
+	 * Thrown by the sink when storage refuses the entries themselves rather than fails to write them.
+	 */
+	public static class RejectedException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public RejectedException(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	private final ArrayBlockingQueue<T> queue;
+	private final Sink<T> sink;
+	private final int batchSize;
+	private final long flushInterval;
+	private final Thread flusher;
+
+	private final AtomicLong addedCount = new AtomicLong(0);
+	private final AtomicLong flushedCount = new AtomicLong(0);
+	private final AtomicLong rejectedCount = new AtomicLong(0);
+
+	/**
+	 * Rejected entries waiting to be queued again, used by the flusher thread only.
+	 */
+	private final List<T> rejected = new ArrayList<T>();
+	private long retryRejectedAt;
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param capacity maximum number of dirty entries
+	 * @param batchSize maximum number of entries passed to the sink at once
+	 * @param flushInterval maximum time in milliseconds entry waits for a batch to fill
+	 */
+	public WriteBehindQueue(Sink<T> sink, int capacity, int batchSize, long flushInterval) {
+		this.queue = new ArrayBlockingQueue<T>(capacity);
+		this.sink = sink;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runFlusher();
+			}
+		}, "write-behind-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Enqueues dirty entry, waits for free space if the queue is full.
+	 */
+	public void add(T entry) throws InterruptedException {
+		if (!running) {
+			throw new IllegalStateException("Write-behind queue is closed");
+		}
+		// counted before put, so every entry already in the queue is covered by mark()
+		addedCount.incrementAndGet();
+		try {
+			queue.put(entry);
+		} catch (InterruptedException e) {
+			addedCount.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return mark which is passed when all entries added before this call are flushed, see isFlushed()
+	 */
+	public long mark() {
+		return addedCount.get();
+	}
+
+	/**
+	 * Entries are flushed in the order they were added, so passed mark means
+	 * all entries added before the mark was taken are flushed or rejected.
+	 * Rejected entry is counted as flushed and added again when it is retried, so it never stalls the mark.
+	 */
+	public boolean isFlushed(long mark) {
+		return flushedCount.get() >= mark;
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * @return number of times storage rejected an entry
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Stops accepting entries and waits up to CLOSE_TIMEOUT until all queued entries are flushed, see close(long).
+	 */
+	public boolean close() throws InterruptedException {
+		return close(CLOSE_TIMEOUT);
+	}
+
+	/**
+	 * Stops accepting entries and waits until all queued entries are flushed,
+	 * flusher is interrupted if it does not finish in time and the rest of entries is left unflushed.
+	 * Rejected entries are retried once more.
+	 *
+	 * @param timeout time to wait in milliseconds
+	 * @return true if all entries were flushed
+	 */
+	public boolean close(long timeout) throws InterruptedException {
+		running = false;
+		flusher.join(timeout);
+		if (!flusher.isAlive()) {
+			if (!rejected.isEmpty()) {
+				System.out.printf("Write-behind: stopped with %d rejected entries unflushed\n", rejected.size());
+			}
+			return rejected.isEmpty();
+		}
+		flusher.interrupt();
+		flusher.join(flushInterval);
+		System.out.printf("Write-behind: stopped with %d entries unflushed\n", queue.size());
+		return false;
+	}
+
+	private void runFlusher() {
+		List<T> batch = new ArrayList<T>(batchSize);
+		boolean retriedOnClose = false;
+		while (true) {
+			if (!rejected.isEmpty() && (running ? System.nanoTime() - retryRejectedAt >= 0 : !retriedOnClose)) {
+				retriedOnClose = !running;
+				requeueRejected();
+			}
+			if (!running && queue.isEmpty()) {
+				return;
+			}
+			try {
+				T first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+				while (running && batch.size() < batchSize) {
+					queue.drainTo(batch, batchSize - batch.size());
+					long remaining = deadline - System.nanoTime();
+					if (batch.size() >= batchSize || remaining <= 0) {
+						break;
+					}
+					T next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				queue.drainTo(batch, batchSize - batch.size());
+
+				flush(batch);
+				batch.clear();
+			} catch (InterruptedException e) {
+				// interrupted by close() after timeout, queued entries are abandoned
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Passes batch to the sink until it is written. Failed batch is retried as a whole with growing delay,
+	 * rejected batch is split in halves and rejected single entry is put aside to be retried later.
+	 */
+	private void flush(List<T> batch) throws InterruptedException {
+		long delay = Math.max(1, flushInterval);
+		while (true) {
+			try {
+				sink.flush(batch);
+				flushedCount.addAndGet(batch.size());
+				return;
+			} catch (RejectedException e) {
+				if (batch.size() > 1) {
+					int half = batch.size() / 2;
+					flush(new ArrayList<T>(batch.subList(0, half)));
+					flush(new ArrayList<T>(batch.subList(half, batch.size())));
+				} else {
+					reject(batch.get(0), e);
+				}
+				return;
+			} catch (Exception e) {
+				System.out.printf("Write-behind: flush of %d entries failed, retrying in %dms: %s\n", batch.size(), delay, e);
+				Thread.sleep(delay);
+				delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+			}
+		}
+	}
+
+	private void reject(T entry, RejectedException e) {
+		rejectedCount.incrementAndGet();
+		flushedCount.incrementAndGet();
+		if (rejected.isEmpty()) {
+			retryRejectedAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_DELAY);
+		}
+		rejected.add(entry);
+		System.out.printf("Write-behind: %s rejected, retrying in %dms: %s\n", entry, MAX_RETRY_DELAY, e.getCause());
+	}
+
+	/**
+	 * Adds rejected entries to the queue again as far as there is free space, never blocks the flusher.
+	 */
+	private void requeueRejected() {
+		while (!rejected.isEmpty()) {
+			addedCount.incrementAndGet();
+			if (!queue.offer(rejected.get(0))) {
+				addedCount.decrementAndGet();
+				break;
+			}
+			rejected.remove(0);
+		}
+		retryRejectedAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_DELAY);
+	}
+}
@@ -0,0 +1,154 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.rmi.RemoteException;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import bool.server.AccountService;
+import bool.server.MemoryStorage;
+import bool.server.RemoteStatListener;
+import bool.server.StatDelta;
+import bool.server.StatSnapshot;
+
+public class AccountServiceTest {
+
+	@Test
+	public final void testAddAmount() throws RemoteException {
+		for (boolean compact: new boolean[] {false, true}) {
+			MemoryStorage storage = new MemoryStorage();
+			AccountService service = new AccountService(storage, 100, compact);
+			
+			assertEquals(Long.valueOf(0), service.getAmount(1));
+			service.addAmount(1, 5L);
+			service.addAmount(1, -2L);
+			assertEquals(Long.valueOf(3), service.getAmount(1));
+			assertEquals(3, storage.readRecord(1).value);
+			
+			service.close();
+		}
+	}
+
+	@Test
+	public final void testBatch() throws RemoteException {
+		for (boolean compact: new boolean[] {false, true}) {
+			AccountService service = new AccountService(new MemoryStorage(), 100, compact);
+			
+			service.addAmounts(new int[] {1, 2, 1}, new long[] {10, 20, 30});
+			assertArrayEquals(new long[] {40, 20, 0}, service.getAmounts(new int[] {1, 2, 3}));
+			
+			service.close();
+		}
+	}
+
+	@Test
+	public final void testWriteConflict() throws RemoteException, SQLException {
+		MemoryStorage storage = new MemoryStorage();
+		AccountService service = new AccountService(storage, 100);
+		
+		assertEquals(Long.valueOf(0), service.getAmount(1));
+		// written behind the cached handler, as a stale handler of the account would do
+		storage.upsert(1, 100, 5);
+		service.addAmount(1, 1L);
+		
+		assertEquals(101, storage.readRecord(1).value);
+		assertEquals(Long.valueOf(101), service.getAmount(1));
+		
+		service.close();
+	}
+
+	@Test
+	public final void testStatDeltaLatency() {
+		StatSnapshot previous = new StatSnapshot(1000, 10, 10, 100, 100, 0, 0, 0, 0, 5, 0, 0, 0, 0,
+				1000, 2000, 3000, 4000, 1000, 2000, 3000, 4000);
+		StatSnapshot current = new StatSnapshot(2000, 10, 10, 110, 110, 0, 0, 0, 0, 5, 0, 0, 0, 0,
+				1000, 2000, 3000, 4000, 1000, 2500, 3000, 8000);
+		StatDelta delta = StatDelta.between(previous, current, null, null);
+		// totals and the two changed write percentiles
+		assertEquals(4, delta.getChangedCount());
+		StatSnapshot applied = delta.applyTo(previous);
+		assertEquals(2500, applied.writeP99);
+		assertEquals(8000, applied.writeMax);
+		assertEquals(4000, applied.readMax);
+	}
+
+	@Test
+	public final void testStatSubscription() throws Exception {
+		AccountService service = new AccountService(new MemoryStorage(), 100);
+		final BlockingQueue<StatDelta> deltas = new LinkedBlockingQueue<StatDelta>();
+		RemoteStatListener listener = new RemoteStatListener() {
+			@Override
+			public void update(StatDelta delta) {
+				deltas.add(delta);
+			}
+		};
+		service.getStatService().subscribe(listener);
+		
+		StatDelta first = deltas.poll(5, TimeUnit.SECONDS);
+		assertTrue(first.isFull());
+		StatSnapshot snapshot = first.applyTo(null);
+		
+		service.addAmount(1, 5L);
+		Thread.sleep(10);
+		service.collectData();
+		StatDelta second = deltas.poll(5, TimeUnit.SECONDS);
+		assertTrue(second.getChangedCount() < first.getChangedCount());
+		snapshot = second.applyTo(snapshot);
+		assertEquals(1, snapshot.totalWrites);
+		assertEquals(0, snapshot.totalReads);
+		assertEquals(service.getStatService().snapshot().toString(), snapshot.toString());
+		assertTrue(snapshot.writeMax > 0);
+		assertTrue(snapshot.writeP50 <= snapshot.writeMax);
+		assertEquals(service.getStatService().snapshot().writeP99, snapshot.writeP99);
+		assertEquals(0, snapshot.readMax);
+		
+		service.getStatService().unsubscribe(listener);
+		Thread.sleep(10);
+		service.collectData();
+		assertNull(deltas.poll(100, TimeUnit.MILLISECONDS));
+		
+		service.close();
+	}
+
+	@Test
+	public final void testEviction() throws RemoteException, SQLException {
+		MemoryStorage storage = new MemoryStorage();
+		storage.upsert(0, 100, 1);
+		AccountService service = new AccountService(storage, 10);
+		
+		for (int round = 0; round < 3; ++round) {
+			for (int id = 0; id < 100; ++id) {
+				service.addAmount(id, 1L);
+			}
+		}
+		for (int id = 0; id < 100; ++id) {
+			assertEquals(Long.valueOf(id == 0 ? 103 : 3), service.getAmount(id));
+		}
+		
+		service.close();
+	}
+
+	@Test
+	public final void testWriteBehind() throws RemoteException, SQLException {
+		for (boolean compact: new boolean[] {false, true}) {
+			MemoryStorage storage = new MemoryStorage();
+			AccountService service = new AccountService(storage, 1000, compact);
+			service.enableWriteBehind(100, 10, 10);
+			
+			for (int i = 0; i < 1000; ++i) {
+				service.addAmount(i % 50, 1L);
+			}
+			assertEquals(Long.valueOf(20), service.getAmount(7));
+			service.close();
+			
+			for (int id = 0; id < 50; ++id) {
+				assertEquals(20, storage.readRecord(id).value);
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bool.server.AccountService;
+import bool.server.AccountSnapshot;
+import bool.server.MemoryStorage;
+
+public class AccountSnapshotTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("accounts", ".snapshot");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public final void testWriteAndOpen() throws IOException {
+		AccountSnapshot.Builder builder = new AccountSnapshot.Builder(12345);
+		builder.record(7, 70, 1);
+		builder.record(-3, -30, 2);
+		builder.record(42, 420, 3);
+		assertEquals(3, builder.write(file));
+
+		AccountSnapshot snapshot = AccountSnapshot.open(file);
+		assertEquals(3, snapshot.size());
+		assertEquals(12345, snapshot.getHighWaterMark());
+		assertEquals(-3, snapshot.getId(0));
+		assertEquals(7, snapshot.getId(1));
+		assertEquals(42, snapshot.getId(2));
+
+		int index = snapshot.indexOfValid(42);
+		assertEquals(420, snapshot.getValue(index));
+		assertEquals(3, snapshot.getSequence(index));
+		assertTrue(snapshot.indexOf(8) < 0);
+
+		snapshot.invalidate(42);
+		assertTrue(snapshot.indexOfValid(42) < 0);
+		assertTrue(snapshot.indexOfValid(7) >= 0);
+	}
+
+	@Test(expected = IOException.class)
+	public final void testChecksum() throws IOException {
+		AccountSnapshot.Builder builder = new AccountSnapshot.Builder(0);
+		builder.record(1, 10, 1);
+		builder.write(file);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(raf.length() - 1);
+			raf.write(0xff);
+		} finally {
+			raf.close();
+		}
+		AccountSnapshot.open(file);
+	}
+
+	@Test
+	public final void testRestore() throws Exception {
+		for (boolean compact: new boolean[] {false, true}) {
+			MemoryStorage storage = new MemoryStorage();
+			AccountService service = new AccountService(storage, 100, compact);
+			service.addAmount(1, 10L);
+			service.addAmount(2, 20L);
+			assertEquals(2, service.checkpoint(file));
+			service.close();
+
+			// changed after the checkpoint
+			storage.upsert(2, 25, 2);
+
+			AccountService restored = new AccountService(storage, 100, compact);
+			assertEquals(2, restored.restore(file));
+			assertEquals(10L, (long) restored.getAmount(1));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (restored.isReconciling() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertFalse(restored.isReconciling());
+			assertEquals(25L, (long) restored.getAmount(2));
+
+			restored.addAmount(1, 1L);
+			assertEquals(11L, (long) restored.getAmount(1));
+			assertEquals(11, storage.readRecord(1).value);
+			restored.close();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package bool.accountservice.tests;
+
+import java.rmi.RemoteException;
+
+import bool.server.AccountService;
+import bool.server.MemoryStorage;
+
+/**
+ * Compares heap footprint and single thread throughput of handler cache and compact table,
+ * both measured through AccountService, so the real account stores are compared.
+ * Run with enough heap for the biggest size, e.g. java -Xmx4g AccountStoreComparison 1000000 10000000
+ */
+public class AccountStoreComparison {
+
+	public static void main(String[] args) throws RemoteException, InterruptedException {
+		if (args.length == 0) {
+			args = new String[] {"1000000", "10000000"};
+		}
+
+		for (String arg: args) {
+			int size = Integer.parseInt(arg);
+			compare("handlers", size, false);
+			compare("compact", size, true);
+		}
+	}
+
+	private static void compare(String name, int size, boolean compact) throws RemoteException, InterruptedException {
+		MemoryStorage storage = new MemoryStorage();
+		long before = usedMemory();
+		long start = System.nanoTime();
+
+		AccountService service = new AccountService(storage, size, compact);
+		for (int id = 0; id < size; ++id) {
+			service.preload(id, 0, 0);
+		}
+		long loadNanos = System.nanoTime() - start;
+		long footprint = usedMemory() - before;
+
+		start = System.nanoTime();
+		long sum = 0;
+		for (int round = 0; round < 3; ++round) {
+			for (int id = 0; id < size; ++id) {
+				sum += service.getAmount(id);
+			}
+		}
+		long opNanos = System.nanoTime() - start;
+
+		report(name, size, footprint, loadNanos, opNanos, 3L * size, sum);
+		service.close();
+	}
+
+	private static void report(String name, int size, long footprint, long loadNanos, long opNanos, long ops, long checksum) {
+		System.out.printf("%-8s accounts:%,d heap:%,d bytes (%d bytes/account), load:%,d accounts/s, get:%,d ops/s, checksum:%d%n",
+				name, size, footprint, footprint / size, size * 1000000000L / loadNanos, ops * 1000000000L / opNanos, checksum);
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
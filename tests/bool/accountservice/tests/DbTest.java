@@ -9,6 +9,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import bool.server.Storage;
+
 public class DbTest {
 
 	Db db;
@@ -22,6 +24,7 @@ public class DbTest {
 	@After
 	public void tearDown() throws Exception {
 		db.clear();
+		db.close();
 		db = null;
 	}
 
@@ -55,4 +58,76 @@ public class DbTest {
 			assertEquals(0, db.read(i));
 		}
 	}
+	
+	@Test
+	public final void testUpsert() throws SQLException {
+		for (int i = 0; i < 10; ++i) {
+			long statements = db.getStatementCount();
+			assertEquals(1, db.upsert(i, i, 1));
+			assertEquals(statements + 1, db.getStatementCount());
+			assertEquals(i, db.read(i));
+			
+			statements = db.getStatementCount();
+			assertEquals(1, db.upsert(i, i*5, 2));
+			assertEquals(statements + 1, db.getStatementCount());
+			assertEquals(i*5, db.read(i));
+		}
+	}
+	
+	@Test
+	public final void testUpsertSequence() throws SQLException {
+		assertEquals(1, db.upsert(1, 10, 5));
+		assertEquals(0, db.upsert(1, 20, 4));
+		assertEquals(0, db.upsert(1, 30, 5));
+		assertEquals(10, db.read(1));
+		assertEquals(5, db.readRecord(1).sequence);
+		
+		assertEquals(1, db.upsert(1, 40, 6));
+		assertEquals(40, db.read(1));
+		assertEquals(6, db.readRecord(1).sequence);
+	}
+	
+	@Test
+	public final void testUpsertBatch() throws SQLException {
+		int[] ids = new int[10];
+		long[] values = new long[10];
+		long[] sequences = new long[10];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = i;
+			values[i] = i*5;
+			sequences[i] = 1;
+		}
+		
+		assertEquals(1, db.insert(0, 1));
+		
+		long statements = db.getStatementCount();
+		db.upsertBatch(ids, values, sequences, ids.length);
+		assertEquals(statements + 1, db.getStatementCount());
+		
+		for (int i = 0; i < ids.length; ++i) {
+			assertEquals(i*5, db.read(i));
+		}
+	}
+	
+	@Test
+	public final void testReadRecordsBatch() throws SQLException {
+		int[] ids = new int[150];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = i;
+			assertEquals(1, db.upsert(i, i, 1));
+		}
+		
+		final int[] count = {0};
+		long statements = db.getStatementCount();
+		db.readRecords(ids, ids.length, new Storage.RecordHandler() {
+			@Override
+			public boolean record(int id, long value, long sequence) {
+				++count[0];
+				return true;
+			}
+		});
+		// one statement per READ_BATCH_SIZE ids, counted where statements are executed
+		assertEquals(statements + 2, db.getStatementCount());
+		assertEquals(ids.length, count[0]);
+	}
 }
@@ -0,0 +1,55 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import bool.server.HeavyHitters;
+import bool.server.HotAccount;
+
+public class HeavyHittersTest {
+
+	@Test
+	public final void testTop() {
+		HeavyHitters hitters = new HeavyHitters(16, 1);
+		for (int i = 0; i < 100; ++i) {
+			hitters.offer(7);
+			if (i % 10 == 0) {
+				hitters.offer(i);
+			}
+		}
+
+		List<HotAccount> top = hitters.takeTop(1, 2);
+		assertEquals(1, top.size());
+		assertEquals(7, top.get(0).id);
+		assertEquals(50, top.get(0).perSecond);
+		assertTrue(hitters.takeTop(1, 1).isEmpty());
+	}
+
+	@Test
+	public final void testContendedSamplesCounted() throws InterruptedException {
+		final HeavyHitters hitters = new HeavyHitters(16, 1);
+		final int offers = 100000;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < offers; ++i) {
+						hitters.offer(1);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+
+		// samples dropped on contention are made up for, not lost
+		List<HotAccount> top = hitters.takeTop(1, 1);
+		assertEquals(threads.length * offers, top.get(0).perSecond);
+	}
+}
@@ -34,6 +34,17 @@ public class IdGeneratorTest {
 		IdSource idSource = new RangeIdSource(0, 100);
 	}
 	
+	@Test
+	public final void testArrayIdSource() {
+		IdSource idSource = new ArrayIdSource(new int[] {5, -3, 1000});
+		assertEquals(3, idSource.size());
+		assertEquals(-3, idSource.getId(1));
+		assertEquals(Integer.valueOf(1000), idSource.get(2));
+		
+		idSource = new ListIdSource(Arrays.asList(7, 8));
+		assertEquals(8, idSource.getId(1));
+	}
+	
 	public final void testListIdGenerator() {
 		List<Integer> list = new ArrayList<Integer>(100);
 		Iterable<Integer> ids = new RandomIndexGenerator(100, 100);
@@ -3,6 +3,7 @@ package bool.accountservice.tests;
 import static org.junit.Assert.*;
 
 import java.util.Iterator;
+import java.util.PrimitiveIterator;
 import java.util.Random;
 
 import org.junit.After;
@@ -90,6 +91,75 @@ public class IndexGeneratorTest {
 		assertTrue(calcMeanDelta(new Client.RandomIndexGenerator(1000, -1).iterator()) > 50);
 	}
 	
+	@Test
+	public final void testSeededGeneratorRepeats() {
+		Client.ZipfIndexGenerator generator = new Client.ZipfIndexGenerator(1000, -1, 0.99, 42);
+		Iterator<Integer> first = generator.iterator();
+		Iterator<Integer> second = generator.iterator();
+		Iterator<Integer> again = new Client.ZipfIndexGenerator(1000, -1, 0.99, 42).iterator();
+		boolean differs = false;
+		for (int i = 0; i < 1000; ++i) {
+			Integer index = first.next();
+			assertEquals(index, again.next());
+			differs |= !index.equals(second.next());
+		}
+		assertTrue(differs);
+	}
+	
+	@Test
+	public final void testZipfIndexGenerator() {
+		int[] counts = count(new Client.ZipfIndexGenerator(1000, 100000, 0.99, 1).iterator(), 1000);
+		assertTrue(counts[0] > counts[1]);
+		assertTrue(counts[1] > counts[10]);
+		int top = 0;
+		for (int i = 0; i < 100; ++i) {
+			top += counts[i];
+		}
+		// about 2/3 of draws for 10% of indexes with theta 0.99
+		assertTrue(top > 60000);
+		
+		// zeta estimate for large ranges
+		Iterator<Integer> g = new Client.ZipfIndexGenerator(100000000, -1, 0.99, 1).iterator();
+		for (int i = 0; i < 1000; ++i) {
+			int index = g.next();
+			assertTrue(index >= 0 && index < 100000000);
+		}
+	}
+	
+	@Test
+	public final void testHotspotIndexGenerator() {
+		int[] counts = count(new Client.HotspotIndexGenerator(1000, 100000, 0.9, 0.01, 1).iterator(), 1000);
+		int hot = 0;
+		for (int i = 0; i < 10; ++i) {
+			hot += counts[i];
+		}
+		assertEquals(90000, hot, 1000);
+	}
+	
+	@Test
+	public final void testLatestIndexGenerator() {
+		PrimitiveIterator.OfInt g = new Client.LatestIndexGenerator(1000, -1, 0.99, 1).iterator();
+		int[] early = new int[1000];
+		for (int i = 0; i < 10000; ++i) {
+			++early[g.nextInt()];
+		}
+		// newest index is 499 after 10000 draws
+		int[] late = new int[1000];
+		for (int i = 0; i < 1000; ++i) {
+			++late[g.nextInt()];
+		}
+		assertTrue(early[0] > early[500]);
+		assertTrue(late[499] + late[500] > late[0]);
+	}
+	
+	private int[] count(PrimitiveIterator.OfInt generator, int range) {
+		int[] counts = new int[range];
+		while (generator.hasNext()) {
+			++counts[generator.nextInt()];
+		}
+		return counts;
+	}
+	
 	private int calcMeanDelta(Iterator<Integer> generator) {
 		long wholeDelta = 0;
 		
@@ -0,0 +1,119 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bool.server.AccountService;
+import bool.server.Journal;
+import bool.server.LatencyHistogram;
+import bool.server.MemoryStorage;
+
+public class JournalTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file: files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public final void testReplay() throws Exception {
+		final AtomicLong flushed = new AtomicLong(0);
+		Journal journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE, new Journal.Barrier() {
+			@Override
+			public long mark() {
+				return 1;
+			}
+
+			@Override
+			public boolean isPassed(long mark) {
+				return flushed.get() >= mark;
+			}
+		}, new LatencyHistogram());
+		journal.write(1, 10, 1);
+		journal.write(2, 5, 1);
+		journal.write(1, 30, 3);
+		journal.write(1, 20, 2);
+		journal.close();
+
+		MemoryStorage storage = new MemoryStorage();
+		storage.upsert(2, 7, 2);
+		assertEquals(4, Journal.replay(directory, storage));
+		assertEquals(30, storage.readRecord(1).value);
+		assertEquals(3, storage.readRecord(1).sequence);
+		// newer stored state is kept
+		assertEquals(7, storage.readRecord(2).value);
+
+		assertEquals(0, directory.listFiles().length);
+		assertEquals(0, Journal.replay(directory, storage));
+	}
+
+	@Test
+	public final void testAppliedSegmentsDeleted() throws Exception {
+		final AtomicLong added = new AtomicLong(0);
+		final AtomicLong flushed = new AtomicLong(0);
+		Journal journal = new Journal(directory, 1024, new Journal.Barrier() {
+			@Override
+			public long mark() {
+				return added.get();
+			}
+
+			@Override
+			public boolean isPassed(long mark) {
+				return flushed.get() >= mark;
+			}
+		}, new LatencyHistogram());
+		for (int i = 1; i <= 500; ++i) {
+			added.incrementAndGet();
+			journal.write(i, i, 1);
+		}
+		assertTrue(directory.listFiles().length > 1);
+
+		flushed.set(added.get());
+		long deadline = System.currentTimeMillis() + 5000;
+		while (directory.listFiles().length > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, directory.listFiles().length);
+
+		journal.close();
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public final void testServiceJournal() throws Exception {
+		for (boolean compact: new boolean[] {false, true}) {
+			AccountService service = new AccountService(new MemoryStorage(), 100, compact);
+			service.enableWriteBehind(100, 10, 100);
+			service.enableJournal(directory, Journal.DEFAULT_SEGMENT_SIZE);
+			service.addAmount(1, 5L);
+			service.addAmounts(new int[] {1, 2}, new long[] {10, 20});
+
+			// storage of a crashed service is lost, the journal is still there
+			MemoryStorage recovered = new MemoryStorage();
+			Journal.replay(directory, recovered);
+			assertEquals(15, recovered.readRecord(1).value);
+			assertEquals(20, recovered.readRecord(2).value);
+			service.close();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import bool.server.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public final void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 10000; ++i) {
+			histogram.record(i * 1000);
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(10000, snapshot.getCount());
+		assertEquals(5000000, snapshot.getValueAtPercentile(50), 5000000 / 32);
+		assertEquals(9900000, snapshot.getValueAtPercentile(99), 9900000 / 32);
+		assertEquals(9990000, snapshot.getValueAtPercentile(99.9), 9990000 / 32);
+		assertEquals(10000000, snapshot.getMax(), 10000000 / 32);
+		assertTrue(snapshot.getMax() >= 10000000);
+	}
+
+	@Test
+	public final void testSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 0; i < 64; ++i) {
+			histogram.record(i);
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(31, snapshot.getValueAtPercentile(50));
+		assertEquals(63, snapshot.getMax());
+	}
+
+	@Test
+	public final void testInterval() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1000000000L);
+		LatencyHistogram.Snapshot first = histogram.snapshot();
+
+		histogram.record(1000);
+		histogram.record(Long.MAX_VALUE);
+		LatencyHistogram.Snapshot second = histogram.snapshot();
+
+		LatencyHistogram.Snapshot interval = second.minus(first);
+		assertEquals(2, interval.getCount());
+		assertEquals(1000, interval.getValueAtPercentile(50), 1000 / 32);
+		assertEquals(LatencyHistogram.HIGHEST_VALUE, interval.getMax());
+		assertEquals(3, second.getCount());
+
+		histogram.reset();
+		assertEquals(0, histogram.snapshot().getCount());
+		assertEquals(0, histogram.snapshot().getMax());
+	}
+
+	@Test
+	public final void testMerge() {
+		LatencyHistogram first = new LatencyHistogram();
+		LatencyHistogram second = new LatencyHistogram();
+		first.record(10);
+		second.record(20);
+		second.record(1000000);
+
+		LatencyHistogram.Snapshot merged = first.snapshot().plus(second.snapshot());
+		assertEquals(3, merged.getCount());
+		assertEquals(20, merged.getValueAtPercentile(50));
+		assertEquals(1000000, merged.getMax(), 1000000 / 32);
+	}
+}
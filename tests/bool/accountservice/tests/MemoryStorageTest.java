@@ -0,0 +1,166 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bool.server.GatedStorage;
+import bool.server.MemoryStorage;
+import bool.server.Storage;
+
+public class MemoryStorageTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("accounts", ".dat");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public final void testUpsertSequence() throws SQLException {
+		MemoryStorage storage = new MemoryStorage();
+		assertEquals(0, storage.readRecord(1).value);
+		
+		assertEquals(1, storage.upsert(1, 10, 2));
+		assertEquals(0, storage.upsert(1, 5, 1));
+		assertEquals(0, storage.upsert(1, 5, 2));
+		assertEquals(10, storage.readRecord(1).value);
+		
+		assertEquals(1, storage.upsert(1, 20, 3));
+		assertEquals(20, storage.readRecord(1).value);
+		assertEquals(3, storage.readRecord(1).sequence);
+	}
+
+	@Test
+	public final void testScan() throws SQLException {
+		MemoryStorage storage = new MemoryStorage();
+		int[] ids = {5, -3, 100, 7, 42};
+		long[] values = {50, -30, 1000, 70, 420};
+		storage.upsertBatch(ids, values, new long[] {1, 1, 1, 1, 1}, ids.length);
+		
+		assertArrayEquals(new int[] {-3, 100}, storage.idRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		assertArrayEquals(new int[] {5, 42}, storage.idRange(0, 99));
+		assertNull(storage.idRange(43, 99));
+		
+		final List<Integer> scanned = new ArrayList<Integer>();
+		storage.scan(0, 42, 10, new Storage.RecordHandler() {
+			@Override
+			public boolean record(int id, long value, long sequence) {
+				assertEquals(id * 10, value);
+				scanned.add(id);
+				return true;
+			}
+		});
+		assertEquals(3, scanned.size());
+		assertEquals(Integer.valueOf(5), scanned.get(0));
+		assertEquals(Integer.valueOf(42), scanned.get(2));
+	}
+
+	@Test
+	public final void testFileReload() throws SQLException {
+		MemoryStorage storage = new MemoryStorage(file);
+		for (int i = 0; i < 1000; ++i) {
+			storage.upsert(i % 100, i, i + 1);
+		}
+		storage.upsertBatch(new int[] {1, 2}, new long[] {-1, -2}, new long[] {0, 10000}, 2);
+		storage.close();
+		
+		storage = new MemoryStorage(file);
+		assertEquals(100, storage.size());
+		assertEquals(901, storage.readRecord(1).value);
+		assertEquals(-2, storage.readRecord(2).value);
+		assertEquals(999, storage.readRecord(99).value);
+		storage.close();
+	}
+
+	@Test
+	public final void testCompaction() throws SQLException {
+		MemoryStorage storage = new MemoryStorage(file);
+		int batch = 4096;
+		int[] ids = new int[batch];
+		long[] values = new long[batch];
+		long[] sequences = new long[batch];
+		long sequence = 0;
+		// well past the compaction threshold of 2^20 appended records
+		for (int n = 0; n < 300; ++n) {
+			for (int i = 0; i < batch; ++i) {
+				ids[i] = i % 100;
+				values[i] = ++sequence;
+				sequences[i] = sequence;
+			}
+			storage.upsertBatch(ids, values, sequences, batch);
+		}
+		assertEquals(1, storage.upsert(7, -7, ++sequence));
+		storage.close();
+		assertTrue(file.length() < 300L * batch * 20 / 2);
+		assertFalse(new File(file.getPath() + ".compact").exists());
+
+		storage = new MemoryStorage(file);
+		assertEquals(100, storage.size());
+		assertEquals(-7, storage.readRecord(7).value);
+		assertEquals(sequence - 1, storage.readRecord(95).value);
+		storage.close();
+	}
+
+	@Test
+	public final void testGatedStorage() throws Exception {
+		MemoryStorage memory = new MemoryStorage();
+		memory.upsert(1, 10, 1);
+		final GatedStorage storage = new GatedStorage(memory, 2);
+		final AtomicInteger inside = new AtomicInteger(0);
+		final AtomicInteger maxInside = new AtomicInteger(0);
+		final AtomicInteger failures = new AtomicInteger(0);
+		
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 16; ++i) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						storage.scan(0, 10, 10, new Storage.RecordHandler() {
+							@Override
+							public boolean record(int id, long value, long sequence) {
+								int current = inside.incrementAndGet();
+								int max = maxInside.get();
+								while (max < current && !maxInside.compareAndSet(max, current)) {
+									max = maxInside.get();
+								}
+								try {
+									Thread.sleep(5);
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
+								}
+								inside.decrementAndGet();
+								return true;
+							}
+						});
+					} catch (SQLException e) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+		assertTrue(maxInside.get() <= 2);
+	}
+}
@@ -0,0 +1,164 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bool.client.NioAccountClient;
+import bool.server.AccountService;
+import bool.server.MemoryStorage;
+import bool.server.NioAccountServer;
+import bool.server.NioProtocol;
+
+public class NioAccountServerTest {
+	private static final int PORT = 21235;
+
+	private AccountService service;
+	private NioAccountServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		service = new AccountService(new MemoryStorage(), 100);
+		server = new NioAccountServer(service, PORT, Executors.newFixedThreadPool(2));
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+		service.close();
+	}
+
+	@Test
+	public final void testHugeBatchCount() throws IOException {
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			ByteArrayOutputStream frames = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(frames);
+			out.writeInt(9);
+			out.writeByte(NioProtocol.GET_BATCH);
+			out.writeInt(1);
+			out.writeInt(Integer.MAX_VALUE);
+			// sent at once, server may close the connection before reading further writes
+			socket.getOutputStream().write(frames.toByteArray());
+			assertClosed(socket);
+		} finally {
+			socket.close();
+		}
+		assertServing();
+	}
+
+	@Test
+	public final void testShortFrame() throws IOException {
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			ByteArrayOutputStream frames = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(frames);
+			// GET without id followed by a valid GET, the id must not be taken from the next frame
+			out.writeInt(5);
+			out.writeByte(NioProtocol.GET);
+			out.writeInt(1);
+			out.writeInt(9);
+			out.writeByte(NioProtocol.GET);
+			out.writeInt(2);
+			out.writeInt(7);
+			// sent at once, server may close the connection before reading further writes
+			socket.getOutputStream().write(frames.toByteArray());
+			assertClosed(socket);
+		} finally {
+			socket.close();
+		}
+		assertServing();
+	}
+
+	@Test
+	public final void testPipelineLimit() throws Exception {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		final CountDownLatch blocked = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		NioAccountServer limited = new NioAccountServer(service, PORT + 1, executor);
+		limited.start();
+		Socket socket = new Socket("localhost", PORT + 1);
+		try {
+			int requests = NioAccountServer.MAX_IN_FLIGHT * 4;
+			ByteArrayOutputStream frames = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(frames);
+			for (int i = 0; i < requests; ++i) {
+				out.writeInt(9);
+				out.writeByte(NioProtocol.GET);
+				out.writeInt(i);
+				out.writeInt(1);
+			}
+			socket.getOutputStream().write(frames.toByteArray());
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (executor.getQueue().size() < NioAccountServer.MAX_IN_FLIGHT && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(200);
+			// the rest of requests waits unread until responses drain
+			assertEquals(NioAccountServer.MAX_IN_FLIGHT, executor.getQueue().size());
+			blocked.countDown();
+
+			socket.setSoTimeout(5000);
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			boolean[] answered = new boolean[requests];
+			for (int i = 0; i < requests; ++i) {
+				assertEquals(4 + 1 + 8, in.readInt());
+				int requestId = in.readInt();
+				assertEquals(NioProtocol.OK, in.readByte());
+				in.readLong();
+				answered[requestId] = true;
+			}
+			for (boolean response: answered) {
+				assertTrue(response);
+			}
+		} finally {
+			socket.close();
+			limited.close();
+		}
+		assertTrue(executor.isTerminated());
+	}
+
+	private static void assertClosed(Socket socket) throws IOException {
+		socket.setSoTimeout(5000);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		try {
+			assertEquals(-1, in.read());
+		} catch (IOException e) {
+			// reset by server
+		}
+	}
+
+	private void assertServing() throws IOException {
+		NioAccountClient client = new NioAccountClient("localhost", PORT);
+		try {
+			client.addAmount(1, 5L);
+			assertEquals(Long.valueOf(5), client.getAmount(1));
+		} finally {
+			client.close();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import bool.client.RateSchedule;
+
+public class RateScheduleTest {
+
+	@Test
+	public final void testInterval() {
+		assertEquals(1000000, new RateSchedule(1000, 0).getInterval());
+		assertEquals(400, new RateSchedule(2500000, 0).getInterval());
+		// rates above one per nanosecond are clamped
+		assertEquals(1, new RateSchedule(1e12, 0).getInterval());
+	}
+
+	@Test
+	public final void testDueTimes() {
+		long start = System.nanoTime() + 20000000;
+		RateSchedule schedule = new RateSchedule(100, start);
+		assertEquals(start, schedule.await());
+		assertTrue(System.nanoTime() >= start);
+		assertEquals(start + 10000000, schedule.await());
+		assertTrue(System.nanoTime() >= start + 10000000);
+	}
+
+	@Test
+	public final void testOverdue() {
+		long start = System.nanoTime() - 1000000000;
+		RateSchedule schedule = new RateSchedule(10, start);
+		long before = System.nanoTime();
+		// overdue requests keep their due times and are not waited for
+		for (int i = 0; i < 10; ++i) {
+			assertEquals(start + i * 100000000L, schedule.await());
+		}
+		assertTrue(System.nanoTime() - before < 100000000);
+	}
+}
@@ -0,0 +1,121 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import bool.client.RoutingAccountService;
+import bool.server.AccountService;
+import bool.server.HashRing;
+import bool.server.MemoryStorage;
+import bool.server.RemoteAccountService;
+
+public class ShardingTest {
+
+	@Test
+	public final void testBalance() {
+		HashRing ring = new HashRing(Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+		int[] counts = new int[ring.size()];
+		for (int id = 0; id < 100000; ++id) {
+			++counts[ring.ownerOf(id)];
+		}
+		for (int count: counts) {
+			assertTrue("unbalanced: " + Arrays.toString(counts), count > 15000 && count < 35000);
+		}
+	}
+
+	@Test
+	public final void testNodeAdded() {
+		HashRing ring = new HashRing(Arrays.asList("a:1", "b:1", "c:1"));
+		HashRing grown = new HashRing(Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+		int moved = 0;
+		for (int id = 0; id < 100000; ++id) {
+			int owner = grown.ownerOf(id);
+			if (owner != ring.ownerOf(id)) {
+				// ids only move to the new node
+				assertEquals("d:1", grown.getNode(owner));
+				++moved;
+			}
+		}
+		assertTrue("moved: " + moved, moved > 15000 && moved < 35000);
+	}
+
+	@Test
+	public final void testParseNodes() {
+		assertEquals(Arrays.asList("a:1", "b:2"), HashRing.parseNodes(" a:1,,b:2 "));
+	}
+
+	@Test
+	public final void testRouting() throws RemoteException {
+		HashRing ring = new HashRing(Arrays.asList("localhost:1234", "localhost:1244"));
+		List<RemoteAccountService> services = new ArrayList<RemoteAccountService>();
+		for (String node: ring.getNodes()) {
+			AccountService service = new AccountService(new MemoryStorage(), 100);
+			service.setShard(ring, node);
+			services.add(service);
+		}
+		RoutingAccountService router = new RoutingAccountService(ring, services);
+
+		int[] ids = new int[20];
+		long[] values = new long[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = i;
+			values[i] = i * 10;
+		}
+		router.addAmounts(ids, values);
+		router.addAmount(3, 1L);
+		assertEquals(Long.valueOf(31), router.getAmount(3));
+		long[] amounts = router.getAmounts(new int[] {19, 3, 0, 7});
+		assertArrayEquals(new long[] {190, 31, 0, 70}, amounts);
+		assertEquals(0, router.getAmounts(new int[0]).length);
+
+		for (int id: ids) {
+			RemoteAccountService other = services.get(1 - ring.ownerOf(id));
+			try {
+				other.getAmount(id);
+				fail("account " + id + " served by node not owning it");
+			} catch (RemoteException e) {
+				// refused
+			}
+		}
+		try {
+			services.get(0).addAmounts(ids, values);
+			fail("batch with ids of other node accepted");
+		} catch (RemoteException e) {
+			// refused as a whole
+		}
+		assertArrayEquals(new long[] {190, 31, 0, 70}, router.getAmounts(new int[] {19, 3, 0, 7}));
+
+		for (RemoteAccountService service: services) {
+			((AccountService) service).close();
+		}
+	}
+
+	@Test
+	public final void testWarmUpOwnedOnly() throws Exception {
+		HashRing ring = new HashRing(Arrays.asList("localhost:1234", "localhost:1244"));
+		MemoryStorage storage = new MemoryStorage();
+		int[] owned = new int[ring.size()];
+		for (int id = 0; id < 1000; ++id) {
+			storage.upsert(id, id, 1);
+			++owned[ring.ownerOf(id)];
+		}
+
+		for (int node = 0; node < ring.size(); ++node) {
+			AccountService service = new AccountService(storage, 1000);
+			service.setShard(ring, ring.getNode(node));
+			assertEquals(owned[node], service.warmUp(0, 999, 2));
+			service.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void testUnknownNode() {
+		new AccountService(new MemoryStorage(), 100).setShard(new HashRing(Arrays.asList("a:1")), "b:1");
+	}
+}
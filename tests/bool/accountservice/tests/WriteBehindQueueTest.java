@@ -0,0 +1,108 @@
+package bool.accountservice.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import bool.server.WriteBehindQueue;
+
+public class WriteBehindQueueTest {
+
+	@Test
+	public final void testRejectedEntry() throws InterruptedException {
+		final List<Integer> flushed = new ArrayList<Integer>();
+		WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(new WriteBehindQueue.Sink<Integer>() {
+			@Override
+			public void flush(List<Integer> batch) throws Exception {
+				if (batch.contains(13)) {
+					throw new WriteBehindQueue.RejectedException(new Exception("bad entry"));
+				}
+				flushed.addAll(batch);
+			}
+		}, 100, 100, 1);
+
+		for (int i = 0; i < 20; ++i) {
+			queue.add(i);
+		}
+		long mark = queue.mark();
+		assertFalse(queue.close());
+
+		assertEquals(19, flushed.size());
+		assertFalse(flushed.contains(13));
+		// rejected once and once more on close
+		assertEquals(2, queue.getRejectedCount());
+		assertTrue(queue.isFlushed(mark));
+	}
+
+	@Test
+	public final void testRejectedEntryRetried() throws InterruptedException {
+		final List<Integer> flushed = new ArrayList<Integer>();
+		WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(new WriteBehindQueue.Sink<Integer>() {
+			private boolean rejected = false;
+
+			@Override
+			public void flush(List<Integer> batch) throws Exception {
+				if (!rejected && batch.contains(13)) {
+					rejected = true;
+					throw new WriteBehindQueue.RejectedException(new Exception("bad entry"));
+				}
+				flushed.addAll(batch);
+			}
+		}, 100, 100, 1);
+
+		for (int i = 0; i < 20; ++i) {
+			queue.add(i);
+		}
+		assertTrue(queue.close());
+		assertEquals(20, flushed.size());
+		assertTrue(flushed.contains(13));
+	}
+
+	@Test
+	public final void testStorageOutage() throws InterruptedException {
+		final List<Integer> flushed = new ArrayList<Integer>();
+		final int[] calls = new int[1];
+		WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(new WriteBehindQueue.Sink<Integer>() {
+			@Override
+			public void flush(List<Integer> batch) throws Exception {
+				// more failures than any fixed number of attempts would allow
+				if (++calls[0] <= 10) {
+					throw new Exception("storage is down");
+				}
+				flushed.addAll(batch);
+			}
+		}, 100, 100, 1);
+
+		for (int i = 0; i < 20; ++i) {
+			queue.add(i);
+		}
+		long mark = queue.mark();
+		assertTrue(queue.close());
+
+		assertEquals(20, flushed.size());
+		assertEquals(0, queue.getRejectedCount());
+		assertTrue(queue.isFlushed(mark));
+	}
+
+	@Test
+	public final void testCloseTimeout() throws InterruptedException {
+		final CountDownLatch failing = new CountDownLatch(1);
+		WriteBehindQueue<Integer> queue = new WriteBehindQueue<Integer>(new WriteBehindQueue.Sink<Integer>() {
+			@Override
+			public void flush(List<Integer> batch) throws Exception {
+				failing.countDown();
+				throw new Exception("storage is down");
+			}
+		}, 100, 100, 1000);
+
+		queue.add(1);
+		failing.await();
+		long start = System.currentTimeMillis();
+		assertFalse(queue.close(100));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+}